@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of inserting rows into in-memory HSQLDB table: one executeUpdate per row
+ * against {@link BatchExecutor} and {@link MultiRowInsert}.
+ * @author wayerr
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private SqlTemplate template;
+    private MultiRowInsert multiRow;
+    private List<Map<String, Object>> rows;
+    private Connection connection;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, SqlTemplate> templates = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#insertUser\ninsert into users(id, name) values(/*$id type=integer*/, /*$name type=varchar*/)\n" +
+          "--#insertUsers\ninsert into users(id, name) values /*+rows sep=, {*/(/*$id type=integer*/, /*$name type=varchar*/)/*}*/"
+        ));
+        template = templates.get("insertUser");
+        multiRow = MultiRowInsert.of(templates.get("insertUsers"), batchSize);
+        rows = new ArrayList<>(ROWS);
+        for(int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("name", "user" + i);
+            rows.add(row);
+        }
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:bench", "SA", "");
+        connection.setAutoCommit(false);
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("create table users(id int, name varchar(20))");
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void clear() throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("truncate table users");
+        }
+        connection.commit();
+    }
+
+    @TearDown
+    public void close() throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void executeUpdate() throws SQLException {
+        BindingPlan plan = template.getBindingPlan();
+        try(PreparedStatement statement = connection.prepareStatement(template.getQuery())) {
+            for(int i = 0; i < ROWS; i++) {
+                plan.bind(statement, i, "user" + i);
+                statement.executeUpdate();
+            }
+        }
+        connection.commit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public BatchExecutor.Stats batch() throws SQLException {
+        BatchExecutor.Stats stats;
+        try(BatchExecutor executor = BatchExecutor.builder(template).batchSize(batchSize).build(connection)) {
+            for(int i = 0; i < ROWS; i++) {
+                executor.add(i, "user" + i);
+            }
+            executor.flush();
+            stats = executor.getStats();
+        }
+        connection.commit();
+        return stats;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int multiRow() throws SQLException {
+        int count = multiRow.execute(connection, rows);
+        connection.commit();
+        return count;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.Random;
+
+/**
+ * Generator of synthetic sql files for benchmarks. Text depends only on arguments,
+ * therefore results of different commits is comparable.
+ * @author wayerr
+ */
+public final class Corpus {
+
+    /**
+     * Kind of generated text.
+     */
+    public enum Shape {
+        /**
+         * Long queries with few comments.
+         */
+        CODE,
+        /**
+         * Most of text is comments, fields and parameters with attributes.
+         */
+        COMMENT,
+        /**
+         * Many named parameters and parameters with sample value.
+         */
+        PARAMS
+    }
+
+    public static final long SEED = 0x5EEDL;
+
+    private static final String[] WORDS = {"id", "name", "code", "created", "updated", "owner", "amount",
+      "status", "device", "event_time", "comment", "weight"};
+    private static final String[] TYPES = {"INT", "VARCHAR", "TIMESTAMP", "BIGINT", "DECIMAL"};
+
+    private Corpus() {
+    }
+
+    /**
+     * Generate text.
+     * @param seed seed of random
+     * @param templates count of templates
+     * @param shape kind of text
+     * @return sql text
+     */
+    public static String generate(long seed, int templates, Shape shape) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(templates * 512);
+        sb.append("-- generated corpus, seed=").append(seed).append('\n');
+        for(int t = 0; t < templates; t++) {
+            if(random.nextBoolean()) {
+                sb.append("/*#query").append(t).append(" title=\"Query ").append(t).append("\" group=g").append(t % 7).append("*/\n");
+            } else {
+                sb.append("--#query").append(t).append(" owner='team ").append(t % 3).append("'\n");
+            }
+            switch(shape) {
+                case CODE:
+                    code(random, sb);
+                    break;
+                case COMMENT:
+                    comment(random, sb);
+                    break;
+                case PARAMS:
+                    params(random, sb);
+                    break;
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static void code(Random random, StringBuilder sb) {
+        sb.append("select ");
+        int columns = 5 + random.nextInt(30);
+        for(int i = 0; i < columns; i++) {
+            if(i > 0) {
+                sb.append(", ");
+            }
+            sb.append("t.").append(word(random)).append(i);
+        }
+        sb.append("\n  from table").append(random.nextInt(100)).append(" t\n where t.id = :id");
+        int conditions = random.nextInt(10);
+        for(int i = 0; i < conditions; i++) {
+            sb.append("\n   and t.").append(word(random)).append(" = '").append(word(random)).append("''s'");
+        }
+        sb.append(";\n");
+    }
+
+    private static void comment(Random random, StringBuilder sb) {
+        sb.append("-- ").append(word(random)).append(" description of query, it is long enough to be noticeable\n");
+        sb.append("select\n");
+        int columns = 3 + random.nextInt(10);
+        for(int i = 0; i < columns; i++) {
+            String word = word(random);
+            sb.append("  ").append(word).append(i).append(i + 1 < columns? "," : "")
+              .append(" /*@").append(word).append(i).append(" type=").append(TYPES[random.nextInt(TYPES.length)])
+              .append(" title=\"").append(word).append(" column\" javaType=java.lang.String*/\n");
+            if(random.nextInt(3) == 0) {
+                sb.append("  /* plain comment with 'quotes' and -- dashes */\n");
+            }
+        }
+        sb.append(" from t --@ignored type=INT\n");
+    }
+
+    private static void params(Random random, StringBuilder sb) {
+        sb.append("select * from t where 1 = 1");
+        int params = 5 + random.nextInt(40);
+        for(int i = 0; i < params; i++) {
+            String word = word(random);
+            sb.append("\n  and ").append(word).append(" = ");
+            switch(random.nextInt(3)) {
+                case 0:
+                    sb.append(':').append(word);
+                    break;
+                case 1:
+                    sb.append("/*$").append(word).append(" type=").append(TYPES[random.nextInt(TYPES.length)]).append("*/");
+                    break;
+                default:
+                    sb.append("/*$").append(word).append(" dir=IN {*/'").append(word).append(" sample'/*}*/");
+            }
+        }
+        sb.append(";\n");
+    }
+}
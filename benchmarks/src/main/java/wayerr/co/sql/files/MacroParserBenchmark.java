@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of {@link MacroParser#next()} on bodies of typical macros.
+ * @author wayerr
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MacroParserBenchmark {
+
+    @Param({"name", "name type=INT", "name type=VARCHAR title=\"Some title\" javaType=java.lang.String",
+      "'quoted \\' name' key = \"escaped \\\" value\""})
+    public String macro;
+
+    @Benchmark
+    public void next(Blackhole bh) {
+        MacroParser mp = new MacroParser(macro, 0);
+        while(!mp.isEnd()) {
+            mp.next();
+            bh.consume(mp.getKey());
+            bh.consume(mp.getValue());
+        }
+    }
+
+    @Benchmark
+    public void nextWithoutStrings(Blackhole bh) {
+        MacroParser mp = new MacroParser(macro, 0);
+        while(!mp.isEnd()) {
+            mp.next();
+            bh.consume(mp.keyEquals("type"));
+            bh.consume(mp.getValueBegin());
+            bh.consume(mp.getValueEnd());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of tokenizer (chars and UTF-8 bytes), {@link SqlParser#parse} and {@link SqlParser#parseToMap}.
+ * @author wayerr
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({"10", "5000"})
+    public int templates;
+
+    @Param({"CODE", "COMMENT", "PARAMS"})
+    public Corpus.Shape shape;
+
+    private String text;
+    private ByteBuffer bytes;
+    private SqlParser parser;
+
+    @Setup
+    public void setup() {
+        text = Corpus.generate(Corpus.SEED, templates, shape);
+        bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        parser = SqlParser.getDefault();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) throws IOException {
+        ParserContext ctx = new ParserContext();
+        ctx.setTokenHandler(() -> bh.consume(ctx.getType()));
+        ctx.parse(new StringReader(text));
+    }
+
+    @Benchmark
+    public void tokenizeUtf8(Blackhole bh) {
+        Utf8ParserContext ctx = new Utf8ParserContext();
+        ctx.setTokenHandler(() -> bh.consume(ctx.getType()));
+        ctx.parse(bytes);
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws IOException {
+        parser.parse(new StringReader(text), bh::consume);
+    }
+
+    @Benchmark
+    public void parseDecodedStream(Blackhole bh) throws IOException {
+        parser.parse(new InputStreamReader(new ByteArrayInputStream(bytes.array()), StandardCharsets.UTF_8), bh::consume);
+    }
+
+    @Benchmark
+    public void parseUtf8Stream(Blackhole bh) throws IOException {
+        parser.parse(new ByteArrayInputStream(bytes.array()), bh::consume);
+    }
+
+    @Benchmark
+    public Map<String, SqlTemplate> parseToMap() throws IOException {
+        return parser.parseToMap(new StringReader(text));
+    }
+}
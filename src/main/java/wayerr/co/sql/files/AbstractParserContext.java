@@ -0,0 +1,295 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+/**
+ * Base of parser contexts, it contains state machine of tokenizer. Concrete context
+ * own buffer of text and pass its characters into {@link #step(int, int)}. Positions
+ * is measured in units of buffer (chars or bytes), therefore character may take
+ * more than one unit. All syntax characters take exactly one unit.
+ * <p/>
+ * Tokenizer is a table-driven automaton: character is mapped to class by table for ASCII range,
+ * then pair of state and class gives next state and optional end of token. States of code
+ * remember last unit of current token, it is need for detecting of '--', '/*' and ':param'.
+ * @author wayerr
+ */
+abstract class AbstractParserContext implements Token {
+
+    // classes of characters
+    private static final int C_OTHER = 0;
+    private static final int C_PARAM = 1;
+    private static final int C_QUOTE = 2;
+    private static final int C_DQUOTE = 3;
+    private static final int C_DASH = 4;
+    private static final int C_NEWLINE = 5;
+    private static final int C_STAR = 6;
+    private static final int C_SLASH = 7;
+    private static final int C_COLON = 8;
+    private static final int CLASSES = 9;
+    // row of transitions table is padded, therefore index is computed by shift
+    private static final int CLASS_BITS = 4;
+
+    // states, code states differ by last unit of current token
+    /**
+     * Code without units in current token.
+     */
+    private static final int S_CODE_START = 0;
+    /**
+     * Code after usual character.
+     */
+    private static final int S_CODE = 1;
+    private static final int S_CODE_DASH = 2;
+    private static final int S_CODE_SLASH = 3;
+    /**
+     * Colon after non colon character, next param character start named parameter.
+     */
+    private static final int S_CODE_COLON = 4;
+    /**
+     * Colon which can not start parameter, like in '::int' or at begin of token.
+     */
+    private static final int S_CODE_COLON_X = 5;
+    private static final int S_STRING = 6;
+    private static final int S_QUOTED = 7;
+    private static final int S_LINE = 8;
+    private static final int S_COMMENT = 9;
+    private static final int S_COMMENT_STAR = 10;
+    private static final int S_PARAM = 11;
+    private static final int STATES = 12;
+
+    private static final TokenType[] TYPES = {
+        TokenType.CODE, TokenType.CODE, TokenType.CODE, TokenType.CODE, TokenType.CODE, TokenType.CODE,
+        TokenType.STRING, TokenType.QUOTED_IDENTIFIER, TokenType.COMMENT_LINE, TokenType.COMMENT, TokenType.COMMENT,
+        TokenType.NAMED_PARAM
+    };
+
+    /*
+     * Transition is packed into int: next state, flag of token end, and count of units
+     * which is moved into next token as 'units + widths * width of char'.
+     */
+    private static final int STATE_BITS = 4;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final int END_FLAG = 1 << STATE_BITS;
+    private static final int UNITS_SHIFT = STATE_BITS + 1;
+    private static final int WIDTHS_SHIFT = UNITS_SHIFT + 2;
+    private static final int E_NONE = 0;
+    private static final int E_0 = end(0, 0);
+    private static final int E_1 = end(1, 0);
+    private static final int E_2 = end(2, 0);
+    private static final int E_WIDTH = end(0, 1);
+    private static final int E_1_WIDTH = end(1, 1);
+
+    /**
+     * States which are not changed by any character except delimiters, see {@link DelimiterScanner}.
+     */
+    private static final int SKIPPABLE = 1 << S_CODE | 1 << S_STRING | 1 << S_QUOTED | 1 << S_LINE
+      | 1 << S_COMMENT;
+
+    private static final byte[] CLASS_TABLE = new byte[128];
+    private static final int[] TRANSITIONS = new int[STATES << CLASS_BITS];
+
+    static {
+        for(int c = 0; c < 128; c++) {
+            if(c == '.' || c == '_' || Character.isLetterOrDigit(c)) {
+                CLASS_TABLE[c] = C_PARAM;
+            }
+        }
+        CLASS_TABLE['\''] = C_QUOTE;
+        CLASS_TABLE['"'] = C_DQUOTE;
+        CLASS_TABLE['-'] = C_DASH;
+        CLASS_TABLE['\n'] = C_NEWLINE;
+        CLASS_TABLE['\r'] = C_NEWLINE;
+        CLASS_TABLE['*'] = C_STAR;
+        CLASS_TABLE['/'] = C_SLASH;
+        CLASS_TABLE[':'] = C_COLON;
+
+        for(int s = S_CODE_START; s <= S_CODE_COLON_X; s++) {
+            set(s, C_OTHER, S_CODE, E_NONE);
+            set(s, C_PARAM, s == S_CODE_COLON? S_PARAM : S_CODE, s == S_CODE_COLON? E_1_WIDTH : E_NONE);
+            set(s, C_QUOTE, S_STRING, E_1);
+            set(s, C_DQUOTE, S_QUOTED, E_1);
+            set(s, C_DASH, s == S_CODE_DASH? S_LINE : S_CODE_DASH, s == S_CODE_DASH? E_2 : E_NONE);
+            set(s, C_NEWLINE, S_CODE, E_NONE);
+            set(s, C_STAR, s == S_CODE_SLASH? S_COMMENT_STAR : S_CODE, s == S_CODE_SLASH? E_2 : E_NONE);
+            set(s, C_SLASH, S_CODE_SLASH, E_NONE);
+            boolean colonAfterColon = s == S_CODE_START || s == S_CODE_COLON || s == S_CODE_COLON_X;
+            set(s, C_COLON, colonAfterColon? S_CODE_COLON_X : S_CODE_COLON, E_NONE);
+        }
+        for(int c = 0; c < CLASSES; c++) {
+            set(S_STRING, c, S_STRING, E_NONE);
+            set(S_QUOTED, c, S_QUOTED, E_NONE);
+            set(S_LINE, c, S_LINE, E_NONE);
+            set(S_COMMENT, c, S_COMMENT, E_NONE);
+            set(S_COMMENT_STAR, c, S_COMMENT, E_NONE);
+            // character which end parameter is not processed, it only become first unit of code
+            set(S_PARAM, c, S_CODE, E_WIDTH);
+        }
+        // closing quote is a part of string
+        set(S_STRING, C_QUOTE, S_CODE_START, E_0);
+        set(S_QUOTED, C_DQUOTE, S_CODE_START, E_0);
+        // new line is a part of code
+        set(S_LINE, C_NEWLINE, S_CODE, E_1);
+        set(S_COMMENT, C_STAR, S_COMMENT_STAR, E_NONE);
+        set(S_COMMENT_STAR, C_STAR, S_COMMENT_STAR, E_NONE);
+        set(S_COMMENT_STAR, C_SLASH, S_CODE_START, E_0);
+        set(S_PARAM, C_PARAM, S_PARAM, E_NONE);
+        set(S_PARAM, C_DASH, S_CODE_DASH, E_WIDTH);
+        set(S_PARAM, C_SLASH, S_CODE_SLASH, E_WIDTH);
+        set(S_PARAM, C_COLON, S_CODE_COLON_X, E_WIDTH);
+    }
+
+    private static int end(int units, int widths) {
+        return END_FLAG | (units << UNITS_SHIFT) | (widths << WIDTHS_SHIFT);
+    }
+
+    private static void set(int state, int charClass, int next, int end) {
+        TRANSITIONS[(state << CLASS_BITS) | charClass] = next | end;
+    }
+
+    /**
+     * Position of next unit
+     */
+    int pos;
+    /**
+     * Begin of current token
+     */
+    int start;
+    /**
+     * End of token which is passed to handler
+     */
+    int end;
+    /**
+     * State of automaton
+     */
+    private int dfa = S_CODE_START;
+    private TokenType state = TokenType.CODE;
+    private Runnable tokenHandler;
+
+    void setTokenHandler(Runnable tokenHandler) {
+        this.tokenHandler = tokenHandler;
+    }
+
+    /**
+     * Parse range of text which is bound to this context.
+     * @param from begin of range
+     * @param to end of range
+     */
+    abstract void parse(int from, int to);
+
+    /**
+     * View of buffer range.
+     * @param begin begin of range
+     * @param end end of range
+     * @param content true when view is requested for {@link #getContentChars()}
+     * @return view
+     */
+    abstract CharSequence slice(int begin, int end, boolean content);
+
+    /**
+     * Process character which is ended before {@link #pos}.
+     * @param curr character
+     * @param width count of units which is taken by character
+     */
+    final void step(int curr, int width) {
+        int charClass;
+        if(curr < 128) {
+            charClass = CLASS_TABLE[curr];
+        } else {
+            charClass = Character.isLetterOrDigit(curr)? C_PARAM : C_OTHER;
+        }
+        int transition = TRANSITIONS[(dfa << CLASS_BITS) | charClass];
+        dfa = transition & STATE_MASK;
+        if((transition & END_FLAG) != 0) {
+            int offset = ((transition >>> UNITS_SHIFT) & 3) + (transition >>> WIDTHS_SHIFT) * width;
+            transfer(TYPES[dfa], offset);
+        }
+    }
+
+    /**
+     * Check that units before next delimiter can be passed without {@link #step(int, int)}.
+     * @return true when automaton stay in current state until delimiter
+     */
+    final boolean isSkippable() {
+        return (SKIPPABLE >>> dfa & 1) != 0;
+    }
+
+    /**
+     * Pass rest of text as last token.
+     */
+    final void finish() {
+        transfer(null, 0);
+    }
+
+    private void transfer(TokenType state, int offset) {
+        int tokenEnd = pos - offset;
+        if(tokenEnd > start) {
+            // it may happen only for CODE state
+            end = tokenEnd;
+            tokenHandler.run();
+        }
+        start = tokenEnd;
+        this.state = state;
+    }
+
+    String getToken() {
+        return getRaw();
+    }
+
+    @Override
+    public TokenType getType() {
+        return state;
+    }
+
+    @Override
+    public String getRaw() {
+        return getRawChars().toString();
+    }
+
+    @Override
+    public String getContent() {
+        return getContentChars().toString();
+    }
+
+    @Override
+    public CharSequence getRawChars() {
+        return slice(start, end, false);
+    }
+
+    @Override
+    public CharSequence getContentChars() {
+        int begin = start;
+        int finish = end;
+        switch(state) {
+            case COMMENT:
+                begin += 2;
+                finish -= 2;
+                break;
+            case COMMENT_LINE:
+                begin += 2;
+                break;
+            case QUOTED_IDENTIFIER:
+            case STRING:
+                begin += 1;
+                finish = begin;
+                break;
+            case NAMED_PARAM:
+                begin += 1;
+                break;
+        }
+        // comment like '/*/' is shorter than its open and close parts
+        return slice(begin, Math.max(begin, finish), true);
+    }
+}
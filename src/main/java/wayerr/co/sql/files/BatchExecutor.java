@@ -0,0 +1,454 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Batch executor of template, it binds rows by {@link BindingPlan} of template and executes them by
+ * JDBC batches. Batch is flushed when it has {@link #BATCH_SIZE} rows or approximately {@link #BATCH_BYTES}
+ * bytes of values, limits are taken from attributes of template: <code>/*#insertUser batchSize=500*&#47;</code>
+ * and may be overridden by builder. Executor does not commit, usually connection is used without auto commit.
+ * <p/>
+ * Executor is not thread safe, like statement which it uses.
+ * @author wayerr
+ */
+public final class BatchExecutor implements AutoCloseable {
+
+    /**
+     * Name of template attribute with max count of rows in batch.
+     */
+    public static final String BATCH_SIZE = "batchSize";
+    /**
+     * Name of template attribute with max approximate size of values in batch.
+     */
+    public static final String BATCH_BYTES = "batchBytes";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Listener of executed batches.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Invoked after each executed batch.
+         * @param rows count of rows in batch
+         * @param bytes approximate size of values in batch
+         * @param nanos duration of {@link PreparedStatement#executeBatch()}
+         */
+        void onBatch(int rows, long bytes, long nanos);
+    }
+
+    public static class Builder {
+
+        private final SqlTemplate template;
+        private int batchSize;
+        private long batchBytes;
+        private Listener listener;
+
+        Builder(SqlTemplate template) {
+            this.template = Objects.requireNonNull(template, "template is null");
+            this.batchSize = intAttribute(template, BATCH_SIZE, DEFAULT_BATCH_SIZE);
+            this.batchBytes = intAttribute(template, BATCH_BYTES, 0);
+        }
+
+        public SqlTemplate getTemplate() {
+            return template;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Max count of rows in batch, default is value of {@link #BATCH_SIZE} attribute of template
+         * or {@link #DEFAULT_BATCH_SIZE}.
+         * @param batchSize positive count of rows
+         * @return this
+         */
+        public Builder batchSize(int batchSize) {
+            setBatchSize(batchSize);
+            return this;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getBatchBytes() {
+            return batchBytes;
+        }
+
+        /**
+         * Max approximate size of values in batch, default is value of {@link #BATCH_BYTES} attribute of template.
+         * Size of strings is counted as two bytes per char, size of arrays and numbers is its length in bytes.
+         * @param batchBytes size in bytes, or zero for batches limited only by count of rows
+         * @return this
+         */
+        public Builder batchBytes(long batchBytes) {
+            setBatchBytes(batchBytes);
+            return this;
+        }
+
+        public void setBatchBytes(long batchBytes) {
+            this.batchBytes = batchBytes;
+        }
+
+        public Listener getListener() {
+            return listener;
+        }
+
+        /**
+         * Listener of executed batches, it can be used for reporting of batch latencies.
+         * @param listener listener or null
+         * @return this
+         */
+        public Builder listener(Listener listener) {
+            setListener(listener);
+            return this;
+        }
+
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Prepare statement of template on connection.
+         * @param connection connection
+         * @return executor which must be closed
+         * @throws SQLException
+         * @throws IllegalStateException when template has sections or parameter has unknown type
+         */
+        public BatchExecutor build(Connection connection) throws SQLException {
+            if(batchSize <= 0) {
+                throw new IllegalStateException("Batch size must be positive, but is " + batchSize);
+            }
+            if(batchBytes < 0) {
+                throw new IllegalStateException("Batch bytes must not be negative, but is " + batchBytes);
+            }
+            if(!template.getSections().isEmpty()) {
+                throw new IllegalStateException("Template '" + template.getName() +
+                  "' has sections, but all rows of batch must have same query");
+            }
+            BindingPlan plan = template.getBindingPlan();
+            return new BatchExecutor(this, plan, connection.prepareStatement(template.getQuery()));
+        }
+    }
+
+    /**
+     * Statistics of executor.
+     */
+    public static final class Stats {
+        private final long rows;
+        private final long batches;
+        private final long nanos;
+        private final long batchNanos;
+        private final long maxBatchNanos;
+
+        Stats(long rows, long batches, long nanos, long batchNanos, long maxBatchNanos) {
+            this.rows = rows;
+            this.batches = batches;
+            this.nanos = nanos;
+            this.batchNanos = batchNanos;
+            this.maxBatchNanos = maxBatchNanos;
+        }
+
+        /**
+         * Count of executed rows.
+         * @return count of rows
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Count of executed batches.
+         * @return count of batches
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * Time from first added row to end of last batch, or to snapshot of statistics when no batch
+         * has been executed yet.
+         * @return nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Total time of batch executions.
+         * @return nanoseconds
+         */
+        public long getBatchNanos() {
+            return batchNanos;
+        }
+
+        /**
+         * Mean latency of batch execution.
+         * @return nanoseconds, zero when nothing is executed
+         */
+        public long getMeanBatchNanos() {
+            return batches == 0? 0 : batchNanos / batches;
+        }
+
+        /**
+         * Max latency of batch execution.
+         * @return nanoseconds
+         */
+        public long getMaxBatchNanos() {
+            return maxBatchNanos;
+        }
+
+        /**
+         * Throughput of executor, from first added row to end of last batch.
+         * @return rows per second
+         */
+        public double getRowsPerSecond() {
+            return nanos == 0? 0 : rows * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "rows=" + rows +
+                    ", batches=" + batches +
+                    ", rowsPerSecond=" + (long)getRowsPerSecond() +
+                    ", meanBatchMillis=" + getMeanBatchNanos() / 1e6 +
+                    ", maxBatchMillis=" + maxBatchNanos / 1e6 +
+                    '}';
+        }
+    }
+
+    private final SqlTemplate template;
+    private final BindingPlan plan;
+    private final PreparedStatement statement;
+    private final int batchSize;
+    private final long batchBytes;
+    private final Listener listener;
+    private int batchRows;
+    private long bytes;
+    private long rows;
+    private long batches;
+    private boolean started;
+    private long start;
+    private long end;
+    private long batchNanos;
+    private long maxBatchNanos;
+    private boolean closed;
+
+    private BatchExecutor(Builder b, BindingPlan plan, PreparedStatement statement) {
+        this.template = b.template;
+        this.plan = plan;
+        this.statement = statement;
+        this.batchSize = b.batchSize;
+        this.batchBytes = b.batchBytes;
+        this.listener = b.listener;
+    }
+
+    /**
+     * Builder of executor, limits of batch are taken from attributes of template.
+     * @param template template without sections
+     * @return builder
+     * @throws IllegalArgumentException when attribute of template is not a number
+     */
+    public static Builder builder(SqlTemplate template) {
+        return new Builder(template);
+    }
+
+    private static int intAttribute(SqlTemplate template, String name, int def) {
+        String value = template.getAttributes().get(name);
+        if(value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Template '" + template.getName() + "', attribute '" + name + "': " + e.getMessage(), e);
+        }
+    }
+
+    public SqlTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Add row to batch, batch is executed when it reaches limits.
+     * @param values values by parameter name, absent value is bound as null
+     * @throws SQLException
+     */
+    public void add(Map<String, ?> values) throws SQLException {
+        begin();
+        plan.bind(statement, values);
+        long size = 0;
+        if(batchBytes != 0) {
+            for(String name : plan.getNames()) {
+                size += sizeOf(values.get(name));
+            }
+        }
+        end(size);
+    }
+
+    /**
+     * Add row to batch, batch is executed when it reaches limits.
+     * @param values values in order of {@link BindingPlan#getNames()}
+     * @throws SQLException
+     * @throws IllegalArgumentException when count of values is not equal to count of parameters
+     */
+    public void add(Object... values) throws SQLException {
+        begin();
+        plan.bind(statement, values);
+        long size = 0;
+        if(batchBytes != 0) {
+            for(Object value : values) {
+                size += sizeOf(value);
+            }
+        }
+        end(size);
+    }
+
+    /**
+     * Add all rows of stream, then execute remaining batch.
+     * @param rows rows of values by parameter name
+     * @return count of added rows
+     * @throws SQLException
+     */
+    public long addAll(Stream<? extends Map<String, ?>> rows) throws SQLException {
+        long count = 0;
+        // iterator lets SQLException go through without wrapping
+        for(Iterator<? extends Map<String, ?>> i = rows.iterator(); i.hasNext(); count++) {
+            add(i.next());
+        }
+        flush();
+        return count;
+    }
+
+    private void begin() {
+        if(closed) {
+            throw new IllegalStateException("Executor is closed");
+        }
+        if(!started) {
+            started = true;
+            start = System.nanoTime();
+        }
+    }
+
+    private void end(long size) throws SQLException {
+        statement.addBatch();
+        batchRows++;
+        bytes += size;
+        if(batchRows >= batchSize || (batchBytes != 0 && bytes >= batchBytes)) {
+            flush();
+        }
+    }
+
+    private static long sizeOf(Object value) {
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof CharSequence) {
+            return ((CharSequence)value).length() * 2L;
+        }
+        if(value instanceof byte[]) {
+            return ((byte[])value).length;
+        }
+        if(value instanceof Long || value instanceof Double) {
+            return 8;
+        }
+        if(value instanceof Integer || value instanceof Float) {
+            return 4;
+        }
+        if(value instanceof Boolean || value instanceof Byte) {
+            return 1;
+        }
+        // dates, decimals and others
+        return 16;
+    }
+
+    /**
+     * Execute current batch.
+     * @return count of executed rows
+     * @throws SQLException
+     */
+    public int flush() throws SQLException {
+        int count = batchRows;
+        if(count == 0) {
+            return 0;
+        }
+        long size = bytes;
+        batchRows = 0;
+        bytes = 0;
+        long begin = System.nanoTime();
+        statement.executeBatch();
+        end = System.nanoTime();
+        long nanos = end - begin;
+        rows += count;
+        batches++;
+        batchNanos += nanos;
+        maxBatchNanos = Math.max(maxBatchNanos, nanos);
+        if(listener != null) {
+            listener.onBatch(count, size, nanos);
+        }
+        return count;
+    }
+
+    /**
+     * Statistics of executed batches.
+     * @return snapshot of statistics
+     */
+    public Stats getStats() {
+        long nanos = 0;
+        if(started) {
+            nanos = (batches == 0? System.nanoTime() : end) - start;
+        }
+        return new Stats(rows, batches, nanos, batchNanos, maxBatchNanos);
+    }
+
+    /**
+     * Execute remaining batch and close statement.
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        if(closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            statement.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BatchExecutor{" +
+                "template=" + template.getName() +
+                ", batchSize=" + batchSize +
+                ", batchBytes=" + batchBytes +
+                '}';
+    }
+}
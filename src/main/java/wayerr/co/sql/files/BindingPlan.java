@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.sql.JDBCType;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * Precomputed binding of template parameters to JDBC statement. Types and positions is resolved once,
+ * therefore binding does not parse any strings. Plan contains only parameters with 'in' direction,
+ * parameter which appear many times is bound to all its positions.
+ * @see SqlTemplate#getBindingPlan()
+ * @author wayerr
+ */
+public final class BindingPlan {
+
+    private static final int NO_TYPE = Integer.MIN_VALUE;
+
+    private final List<String> names;
+    private final Map<String, Integer> indexes;
+    // 1-based jdbc positions of each distinct parameter
+    private final int[][] positions;
+    // sql type of each jdbc position, NO_TYPE for parameters without type
+    private final int[] sqlTypes;
+
+    private BindingPlan(List<String> names, int[][] positions, int[] sqlTypes) {
+        this.names = Collections.unmodifiableList(names);
+        this.positions = positions;
+        this.sqlTypes = sqlTypes;
+        Map<String, Integer> indexes = new HashMap<>();
+        for(int i = 0; i < names.size(); i++) {
+            indexes.put(names.get(i), i);
+        }
+        this.indexes = indexes;
+    }
+
+    /**
+     * Build plan of template.
+     * @param template template
+     * @return plan
+     * @throws IllegalStateException when parameter has unknown type or template has sections
+     */
+    static BindingPlan of(SqlTemplate template) {
+        if(!template.getSections().isEmpty()) {
+            // otherwise list of repeated or expanded parameter is silently bound to its single placeholder
+            throw new IllegalStateException("Template '" + template.getName() +
+              "' has sections, its values must be bound by SqlTemplate.Variant.bind()");
+        }
+        List<SqlTemplate.Param> params = template.getParams();
+        int[] sqlTypes = new int[params.size() + 1];
+        for(int i = 0; i < params.size(); i++) {
+            SqlTemplate.Param param = params.get(i);
+            try {
+                sqlTypes[i + 1] = sqlType(param);
+            } catch(IllegalArgumentException e) {
+                throw new IllegalStateException("Template '" + template.getName() + "', parameter '" + param.getName() + "': " + e.getMessage(), e);
+            }
+        }
+        List<String> names = new ArrayList<>();
+        List<int[]> positions = new ArrayList<>();
+        for(String name : template.getParamNames()) {
+            int[] all = template.paramPositions(name);
+            int[] in = new int[all.length];
+            int count = 0;
+            for(int position : all) {
+                if(params.get(position - 1).getDirection().isIn()) {
+                    in[count++] = position;
+                }
+            }
+            if(count > 0) {
+                names.add(name);
+                positions.add(count == all.length? all : Arrays.copyOf(in, count));
+            }
+        }
+        return new BindingPlan(names, positions.toArray(new int[positions.size()][]), sqlTypes);
+    }
+
+    /**
+     * Distinct names of bound parameters, in order of first appearance. It is order of values
+     * for {@link #bind(PreparedStatement, Object...)}.
+     * @return unmodifiable list of names
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Index of parameter in {@link #getNames()}.
+     * @param name name of parameter
+     * @return index or -1 when plan has not parameter
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index == null? -1 : index;
+    }
+
+    /**
+     * Bind values to statement. Absent value is bound as null.
+     * @param statement statement
+     * @param values values by parameter name
+     * @throws SQLException
+     */
+    public void bind(PreparedStatement statement, Map<String, ?> values) throws SQLException {
+        for(int i = 0; i < positions.length; i++) {
+            bindValue(statement, i, values.get(names.get(i)));
+        }
+    }
+
+    /**
+     * Bind values to statement.
+     * @param statement statement
+     * @param values values in order of {@link #getNames()}
+     * @throws SQLException
+     * @throws IllegalArgumentException when count of values is not equal to count of parameters
+     */
+    public void bind(PreparedStatement statement, Object... values) throws SQLException {
+        if(values.length != positions.length) {
+            throw new IllegalArgumentException("Expected " + positions.length + " values, but got " + values.length);
+        }
+        for(int i = 0; i < positions.length; i++) {
+            bindValue(statement, i, values[i]);
+        }
+    }
+
+    private void bindValue(PreparedStatement statement, int index, Object value) throws SQLException {
+        for(int position : positions[index]) {
+            setValue(statement, position, sqlTypes[position], value);
+        }
+    }
+
+    /**
+     * Resolve type of parameter.
+     * @param param parameter
+     * @return vendor number of sql type or {@link #NO_TYPE}
+     * @throws IllegalArgumentException when type is unknown
+     */
+    static int sqlType(SqlTemplate.Param param) {
+        JDBCType type = JdbcTypes.resolve(param.getType());
+        return type == null? NO_TYPE : type.getVendorTypeNumber();
+    }
+
+    static void setValue(PreparedStatement statement, int position, int sqlType, Object value) throws SQLException {
+        if(value == null) {
+            statement.setNull(position, sqlType == NO_TYPE? Types.NULL : sqlType);
+        } else if(sqlType == NO_TYPE) {
+            statement.setObject(position, value);
+        } else {
+            statement.setObject(position, value, sqlType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BindingPlan{" +
+                "names=" + names +
+                '}';
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+/**
+ * View of char array range. It does not copy chars, therefore it see any changes of array
+ * and valid only while owner of array does not reuse it.
+ * @author wayerr
+ */
+final class CharSlice implements CharSequence {
+    private char[] arr;
+    private int offset;
+    private int length;
+
+    CharSlice() {
+    }
+
+    CharSlice(char[] arr, int offset, int length) {
+        set(arr, offset, length);
+    }
+
+    /**
+     * Point this view to other range.
+     * @param arr array
+     * @param offset begin of range
+     * @param length length of range
+     * @return this
+     */
+    CharSlice set(char[] arr, int offset, int length) {
+        this.arr = arr;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return arr[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+        return new CharSlice(arr, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(arr, offset, length);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+/**
+ * Receiver of chunks which are pushed by source, it has same methods as {@code java.util.concurrent.Flow.Subscriber}
+ * but without subscription, therefore it can be used on Java 8 and adapted to any reactive library.
+ * Methods are called sequentially: {@link #onNext(Object)} for each chunk, then one of {@link #onError(Throwable)}
+ * or {@link #onComplete()}.
+ * @see IncrementalParser#byteSubscriber()
+ * @see IncrementalParser#charSubscriber()
+ * @author wayerr
+ */
+public interface ChunkSubscriber<T> {
+
+    /**
+     * Next chunk.
+     * @param chunk chunk
+     */
+    void onNext(T chunk);
+
+    /**
+     * Source of chunks is failed, no more chunks follow.
+     * @param error error of source
+     */
+    void onError(Throwable error);
+
+    /**
+     * All chunks are pushed.
+     */
+    void onComplete();
+}
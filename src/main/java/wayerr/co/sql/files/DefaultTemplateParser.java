@@ -16,9 +16,6 @@
  */
 package wayerr.co.sql.files;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  *
  * @author wayerr
@@ -32,21 +29,18 @@ public class DefaultTemplateParser implements TemplateParser {
 
     @Override
     public SqlTemplate.Field parseField(Context ctx) {
-        MacroParser cp = new MacroParser(ctx.getString(), 0);
+        MacroParser cp = new MacroParser(ctx.getChars(), 0);
         cp.next();
         String name = cp.getValue();
         String type = null;
-        Map<String, String> attrs = null;
+        SmallMap attrs = null;
         while(!cp.isEnd()) {
             cp.next();
-            String key = cp.getKey();
-            String val = cp.getValue();
-            switch(key) {
-                case "type":
-                    type = val;
-                    break;
-                default:
-                    attrs = putAttr(attrs, key, val);
+            // keys are compared in place, strings are created only for stored values
+            if(cp.keyEquals("type")) {
+                type = cp.getValue();
+            } else {
+                attrs = putAttr(attrs, cp.reqireKey(), cp.getValue());
             }
         }
         return new SqlTemplate.Field(name, type, attrs);
@@ -54,29 +48,24 @@ public class DefaultTemplateParser implements TemplateParser {
 
     @Override
     public SqlTemplate.Param parseParam(Context ctx) {
-        MacroParser cp = new MacroParser(ctx.getString(), 0);
+        MacroParser cp = new MacroParser(ctx.getChars(), 0);
         cp.next();
         String name = cp.getValue();
         String type = null;
         SqlTemplate.Direction direction = null;
-        Map<String, String> attrs = null;
+        SmallMap attrs = null;
         while(!cp.isEnd()) {
             cp.next();
-            String val = cp.getValue();
-            if(SAMPLE_VALUE.equals(val)) {
+            if(cp.valueEquals(SAMPLE_VALUE)) {
                 ctx.getTemplateBuilder().setTokenFilter(new TokenFilterImpl());
                 break;
             }
-            String key = cp.reqireKey();
-            switch(key) {
-                case "type":
-                    type = val;
-                    break;
-                case "dir":
-                    direction = SqlTemplate.Direction.from(val);
-                    break;
-                default:
-                    attrs = putAttr(attrs, key, val);
+            if(cp.keyEquals("type")) {
+                type = cp.getValue();
+            } else if(cp.keyEquals("dir")) {
+                direction = SqlTemplate.Direction.match(cp::valueEquals);
+            } else {
+                attrs = putAttr(attrs, cp.reqireKey(), cp.getValue());
             }
         }
         if(direction == null) {
@@ -89,18 +78,15 @@ public class DefaultTemplateParser implements TemplateParser {
                 direction);
     }
 
-    private Map<String, String> putAttr(Map<String, String> attrs, String key, String val) {
-        if(attrs == null) {
-            attrs = new HashMap<>();
-        }
-        attrs.put(key, val);
-        return attrs;
+    private SmallMap putAttr(SmallMap attrs, String key, String val) {
+        // usually there is few attributes, therefore copying is cheaper than hash map
+        return SmallMap.with(attrs, key, val);
     }
 
     @Override
     public String parseTemplate(Context ctx) {
         // we also can define fields here
-        MacroParser cp = new MacroParser(ctx.getString(), 0);
+        MacroParser cp = new MacroParser(ctx.getChars(), 0);
         cp.next();
         String name = cp.getValue();
         SqlTemplate.Builder builder = ctx.getTemplateBuilder().getBuilder();
@@ -114,11 +100,38 @@ public class DefaultTemplateParser implements TemplateParser {
         return name;
     }
 
+    @Override
+    public SqlTemplate.Section parseSection(Context ctx, SqlTemplate.Section.Kind kind) {
+        MacroParser cp = new MacroParser(ctx.getChars(), 0);
+        cp.next();
+        String name = cp.getValue();
+        String separator = null;
+        SmallMap attrs = null;
+        boolean opened = false;
+        while(!cp.isEnd()) {
+            cp.next();
+            if(cp.valueEquals(SAMPLE_VALUE)) {
+                // body of section follows macro, like body of sample value
+                opened = true;
+                break;
+            }
+            if(cp.keyEquals("sep")) {
+                separator = cp.getValue();
+            } else {
+                attrs = putAttr(attrs, cp.reqireKey(), cp.getValue());
+            }
+        }
+        if(!opened) {
+            throw new IllegalStateException("Section '" + name + "' must be opened by '" + SAMPLE_VALUE + "': " + ctx.getString());
+        }
+        return new SqlTemplate.Section(name, kind, separator, attrs);
+    }
+
     private static class TokenFilterImpl implements TemplateBuilder.TokenFilter {
 
         @Override
         public boolean skip(TemplateBuilder tb, Token token) {
-            if(!token.getType().isCode() && token.getContent().trim().equals("}")) {
+            if(!token.getType().isCode() && Utils.trimmedEquals(token.getContentChars(), "}")) {
                 TemplateBuilder.TokenFilter curr = tb.getTokenFilter();
                 if (curr != this) {
                     throw new IllegalStateException("Unexpected token filter: " + curr + ", expect: " + this);
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Skip run of units which can not change state of tokenizer. Only delimiters
+ * <code>' " - / * : \n \r</code> are interesting for tokenizer in plain code, strings
+ * and comments, all other characters (including multibyte) are passed by.
+ * <p/>
+ * It is scalar implementation, multi-release jar contains faster variant for newer JVMs
+ * in <code>src/main/java17</code>, both must return same positions.
+ * @author wayerr
+ */
+final class DelimiterScanner {
+
+    /**
+     * Bit set of delimiters, all of them are below 64.
+     */
+    static final long DELIMITERS = 1L << '\'' | 1L << '"' | 1L << '-' | 1L << '/' | 1L << '*'
+      | 1L << ':' | 1L << '\n' | 1L << '\r';
+
+    private DelimiterScanner() {
+    }
+
+    /**
+     * @param c character or signed byte
+     * @return true for delimiter
+     */
+    static boolean isDelimiter(int c) {
+        // negative bytes of multibyte characters are excluded too
+        return c >>> 6 == 0 && (DELIMITERS >>> c & 1) != 0;
+    }
+
+    /**
+     * Find first delimiter in range.
+     * @param buf text
+     * @param from begin of range
+     * @param to end of range
+     * @return position of delimiter or 'to' when range has no delimiters
+     */
+    static int skip(char[] buf, int from, int to) {
+        int i = from;
+        while(i < to && !isDelimiter(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Find first delimiter in range of UTF-8 bytes. Delimiters are ASCII, therefore
+     * they never match part of multibyte character.
+     * @param buf bytes
+     * @param from begin of range
+     * @param to end of range
+     * @return position of delimiter or 'to' when range has no delimiters
+     */
+    static int skip(ByteBuffer buf, int from, int to) {
+        int i = from;
+        while(i < to && !isDelimiter(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Push-style parser: text is fed by chunks as it arrives, for example from non-blocking channel
+ * or {@code java.util.concurrent.Flow.Subscriber#onNext}, and template is passed to consumer as soon
+ * as next template header or end of text is seen. State of tokenizer and builder is kept between chunks,
+ * chunk may end at any position, including middle of token or of UTF-8 character.
+ * <p/>
+ * All chunks must be of one kind: bytes in UTF-8 (or ASCII) or chars. Parser is not thread-safe, chunks
+ * must be fed sequentially. Executor of {@link SqlParser} is not used.
+ * <p/>
+ * Failure of source is passed by {@link #fail(Throwable)}, result of parsing is available as
+ * {@link #getCompletion()}. Push sources can use parser through {@link #byteSubscriber()} or {@link #charSubscriber()}.
+ * @see SqlParser#incremental(Consumer)
+ * @author wayerr
+ */
+public final class IncrementalParser {
+
+    private final SqlParser parser;
+    private final Consumer<SqlTemplate> templatesConsumer;
+    private Utf8ParserContext bytes;
+    private ParserContext chars;
+    private TemplateBuilder tb;
+    private boolean finished;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    IncrementalParser(SqlParser parser, Consumer<SqlTemplate> templatesConsumer) {
+        this.parser = parser;
+        this.templatesConsumer = Objects.requireNonNull(templatesConsumer, "templatesConsumer is null");
+    }
+
+    /**
+     * Parse next chunk of UTF-8 bytes. Remaining bytes of chunk are consumed, therefore chunk
+     * may be reused by caller after this call.
+     * @param chunk bytes
+     * @throws IllegalStateException when parser is finished or chars were fed before
+     */
+    public void feed(ByteBuffer chunk) {
+        Objects.requireNonNull(chunk, "chunk is null");
+        checkNotFinished();
+        if(bytes == null) {
+            if(chars != null) {
+                throw new IllegalStateException("Parser is fed by chars, bytes can not be mixed with them.");
+            }
+            bytes = new Utf8ParserContext();
+            tb = parser.createBuilder(bytes, templatesConsumer);
+        }
+        try {
+            bytes.parseChunk(chunk);
+        } catch(RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Parse next chunk of chars. Remaining chars of chunk are consumed.
+     * @param chunk chars
+     * @throws IllegalStateException when parser is finished or bytes were fed before
+     */
+    public void feed(CharBuffer chunk) {
+        Objects.requireNonNull(chunk, "chunk is null");
+        checkNotFinished();
+        if(chars == null) {
+            if(bytes != null) {
+                throw new IllegalStateException("Parser is fed by bytes, chars can not be mixed with them.");
+            }
+            chars = new ParserContext();
+            tb = parser.createBuilder(chars, templatesConsumer);
+        }
+        try {
+            chars.parseChunk(chunk);
+        } catch(RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Signal end of text, last template is passed to consumer. Subsequent calls do nothing.
+     */
+    public void finish() {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if(bytes != null) {
+                bytes.parseEnd();
+                tb.close();
+            } else if(chars != null) {
+                chars.parseEnd();
+                tb.close();
+            }
+        } catch(RuntimeException e) {
+            completion.completeExceptionally(e);
+            throw e;
+        }
+        completion.complete(null);
+    }
+
+    /**
+     * Abort parsing because source of chunks is failed. Template which is parsed partially is not passed
+     * to consumer, completion is failed with specified error. Subsequent calls do nothing.
+     * @param error error of source
+     */
+    public void fail(Throwable error) {
+        Objects.requireNonNull(error, "error is null");
+        if(finished) {
+            return;
+        }
+        finished = true;
+        bytes = null;
+        chars = null;
+        tb = null;
+        completion.completeExceptionally(error);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Future which is completed when parser is finished, or is failed by error of source or of parsing.
+     * @return future
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Subscriber which feeds UTF-8 bytes into this parser.
+     * @return subscriber
+     */
+    public ChunkSubscriber<ByteBuffer> byteSubscriber() {
+        return new ChunkSubscriber<ByteBuffer>() {
+            @Override
+            public void onNext(ByteBuffer chunk) {
+                feed(chunk);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                fail(error);
+            }
+
+            @Override
+            public void onComplete() {
+                finish();
+            }
+        };
+    }
+
+    /**
+     * Subscriber which feeds chars into this parser.
+     * @return subscriber
+     */
+    public ChunkSubscriber<CharBuffer> charSubscriber() {
+        return new ChunkSubscriber<CharBuffer>() {
+            @Override
+            public void onNext(CharBuffer chunk) {
+                feed(chunk);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                fail(error);
+            }
+
+            @Override
+            public void onComplete() {
+                finish();
+            }
+        };
+    }
+
+    private void checkNotFinished() {
+        if(finished) {
+            throw new IllegalStateException("Parser is finished.");
+        }
+    }
+}
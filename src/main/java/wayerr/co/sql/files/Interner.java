@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of canonical names, types, attributes and structurally equal fields and parameters. It reduce
+ * memory when same definitions are repeated in many templates. Pool is thread-safe and may be shared between
+ * parsers, note that it is never cleared.
+ * @see SqlParser.Builder#interner(Interner)
+ * @author wayerr
+ */
+public final class Interner {
+
+    // rough sizes of objects on 64 bit jvm with compressed references
+    private static final int OBJECT_SIZE = 16;
+    private static final int ARRAY_SIZE = 16;
+    private static final int REF_SIZE = 4;
+
+    private final Map<Object, Object> pool = new ConcurrentHashMap<>();
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Canonical instance of string.
+     * @param str string or null
+     * @return canonical string
+     */
+    public String intern(String str) {
+        if(str == null) {
+            return null;
+        }
+        Object prev = pool.putIfAbsent(str, str);
+        if(prev == null) {
+            return str;
+        }
+        if(prev != str) {
+            savedBytes.add(sizeOf(str));
+        }
+        return (String)prev;
+    }
+
+    /**
+     * Canonical instance of field, its name, type and attributes are canonical too.
+     * @param field field
+     * @return canonical field
+     */
+    public SqlTemplate.Field intern(SqlTemplate.Field field) {
+        Object prev = pool.get(field);
+        if(prev == null) {
+            SqlTemplate.Field canonical = new SqlTemplate.Field(intern(field.getName()), intern(field.getType()),
+              internAttributes(field.getAttributes()));
+            prev = pool.putIfAbsent(canonical, canonical);
+            return prev == null? canonical : (SqlTemplate.Field)prev;
+        }
+        if(prev != field) {
+            savedBytes.add(sizeOf(field));
+        }
+        return (SqlTemplate.Field)prev;
+    }
+
+    /**
+     * Canonical instance of parameter, its name, type and attributes are canonical too.
+     * @param param parameter
+     * @return canonical parameter
+     */
+    public SqlTemplate.Param intern(SqlTemplate.Param param) {
+        Object prev = pool.get(param);
+        if(prev == null) {
+            SqlTemplate.Param canonical = new SqlTemplate.Param(intern(param.getName()), intern(param.getType()),
+              internAttributes(param.getAttributes()), param.getDirection());
+            prev = pool.putIfAbsent(canonical, canonical);
+            return prev == null? canonical : (SqlTemplate.Param)prev;
+        }
+        if(prev != param) {
+            savedBytes.add(sizeOf(param));
+        }
+        return (SqlTemplate.Param)prev;
+    }
+
+    /**
+     * Canonical immutable copy of attributes.
+     * @param attrs attributes
+     * @return canonical map
+     */
+    Map<String, String> internAttributes(Map<String, String> attrs) {
+        if(attrs.isEmpty()) {
+            return SmallMap.EMPTY;
+        }
+        Object prev = pool.get(attrs);
+        if(prev == null) {
+            SmallMap canonical = null;
+            for(Map.Entry<String, String> e : attrs.entrySet()) {
+                canonical = SmallMap.with(canonical, intern(e.getKey()), intern(e.getValue()));
+            }
+            prev = pool.putIfAbsent(canonical, canonical);
+            return prev == null? canonical : castMap(prev);
+        }
+        if(prev != attrs) {
+            savedBytes.add(sizeOf(attrs));
+        }
+        return castMap(prev);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> castMap(Object map) {
+        return (Map<String, String>)map;
+    }
+
+    /**
+     * Build template with canonical name, attributes, fields and parameters. Canonical attributes are
+     * passed to template as is, without copying.
+     * @param builder builder of template
+     * @return template
+     */
+    SqlTemplate build(SqlTemplate.Builder builder) {
+        List<SqlTemplate.Field> fields = builder.getFields();
+        for(int i = 0; i < fields.size(); i++) {
+            fields.set(i, intern(fields.get(i)));
+        }
+        List<SqlTemplate.Param> params = builder.getParams();
+        for(int i = 0; i < params.size(); i++) {
+            params.set(i, intern(params.get(i)));
+        }
+        return new SqlTemplate(intern(builder.getName()), builder.getQuery(), fields, params, builder.getSections(),
+          internAttributes(builder.getAttributes()));
+    }
+
+    private static long sizeOf(String str) {
+        return str == null? 0 : OBJECT_SIZE + 8 + ARRAY_SIZE + str.length() * 2;
+    }
+
+    private static long sizeOf(Map<String, String> attrs) {
+        if(attrs.isEmpty()) {
+            return 0;
+        }
+        long size = OBJECT_SIZE + ARRAY_SIZE + attrs.size() * 2 * REF_SIZE;
+        for(Map.Entry<String, String> e : attrs.entrySet()) {
+            size += sizeOf(e.getKey()) + sizeOf(e.getValue());
+        }
+        return size;
+    }
+
+    private static long sizeOf(NamedChunk chunk) {
+        return OBJECT_SIZE + 4 * REF_SIZE + sizeOf(chunk.getName()) + sizeOf(chunk.getType()) + sizeOf(chunk.getAttributes());
+    }
+
+    /**
+     * Estimated count of bytes which is saved by replacing of duplicates with canonical instances.
+     * It is rough estimate based on sizes of objects on 64 bit jvm.
+     * @return count of bytes
+     */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    /**
+     * Count of canonical objects in pool.
+     * @return count of objects
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Interner{" +
+                "size=" + pool.size() +
+                ", savedBytes=" + savedBytes.sum() +
+                '}';
+    }
+}
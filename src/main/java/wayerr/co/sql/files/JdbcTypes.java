@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.sql.JDBCType;
+import java.util.Locale;
+
+/**
+ * Resolving of type names from templates.
+ * @author wayerr
+ */
+final class JdbcTypes {
+
+    private JdbcTypes() {
+    }
+
+    /**
+     * Resolve type name, it may be name of {@link JDBCType} in any case, 'INT' or numeric code
+     * from {@link java.sql.Types}.
+     * @param typeName name of type or null
+     * @return type or null when name is null
+     * @throws IllegalArgumentException when type is unknown
+     */
+    static JDBCType resolve(String typeName) {
+        if(typeName == null) {
+            return null;
+        }
+        String name = typeName.trim().toUpperCase(Locale.ROOT);
+        if(!name.isEmpty() && (Character.isDigit(name.charAt(0)) || name.charAt(0) == '-')) {
+            try {
+                return JDBCType.valueOf(Integer.parseInt(name));
+            } catch(IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sql type: '" + typeName + "'", e);
+            }
+        }
+        switch(name) {
+            case "INT":
+                return JDBCType.INTEGER;
+            default:
+                try {
+                    return JDBCType.valueOf(name);
+                } catch(IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown sql type: '" + typeName + "'", e);
+                }
+        }
+    }
+}
@@ -23,13 +23,27 @@ package wayerr.co.sql.files;
  */
 public class MacroParser {
     private static final char KV_DELIM = '=';
+    private static final char ESCAPE = '\\';
     private final CharSequence src;
     private final int length;
     private int pos;
+    private int oldPos;
+    /*
+     * Key and value is stored as ranges of source, strings is created only on demand.
+     * Begin is negative when key or value is absent.
+     */
+    private int keyBegin = -1;
+    private int keyEnd;
+    private boolean keyEscaped;
     private String key;
+    private int valueBegin = -1;
+    private int valueEnd;
+    private boolean valueEscaped;
     private String value;
-    private StringBuilder buff;
-    private int oldPos;
+    // result of last parseToken()
+    private int tokenBegin;
+    private int tokenEnd;
+    private boolean tokenEscaped;
 
     public MacroParser(CharSequence src, int offset) {
         this.src = src;
@@ -51,39 +65,54 @@ public class MacroParser {
      */
     public MacroParser next() {
         value = null;
+        valueBegin = -1;
         parse();
         return this;
     }
 
     private void parse() {
-        if(value != null || isEnd()) {
+        if(isEnd()) {
             return;
         }
         key = null;
+        keyBegin = -1;
         oldPos = pos;
-        final String token = parseToken();
-        value = token;
+        if(parseToken()) {
+            valueBegin = tokenBegin;
+            valueEnd = tokenEnd;
+            valueEscaped = tokenEscaped;
+        }
         skipSpaces();
         if(pos < length && src.charAt(pos) == KV_DELIM) {
             pos++;
             // whet it a pair the first value is a key, therefore we must swap them
-            key = token;
-            value = parseToken();
+            keyBegin = valueBegin;
+            keyEnd = valueEnd;
+            keyEscaped = valueEscaped;
+            valueBegin = -1;
+            if(parseToken()) {
+                valueBegin = tokenBegin;
+                valueEnd = tokenEnd;
+                valueEscaped = tokenEscaped;
+            }
         }
         skipSpaces();
     }
 
-    private String parseToken() {
+    /**
+     * Find bounds of next token, it does not create any strings.
+     * @return false when token is absent
+     */
+    private boolean parseToken() {
         skipSpaces();
-        clearBuff();
         int begin = pos;
         int end = 0;
         char quote = 0;
+        boolean escaped = false;
         while(pos < length) {
             char c = src.charAt(pos++);
-            if(c == '\\') {
-                getOrCreateBuffer().append(src, begin, pos - 1);
-                begin = pos;
+            if(c == ESCAPE) {
+                escaped = true;
                 pos++;
                 continue;
             }
@@ -113,13 +142,72 @@ public class MacroParser {
             end = length;
         }
         if(end == 0) {
-            return null;
+            return false;
+        }
+        tokenBegin = begin;
+        tokenEnd = end;
+        tokenEscaped = escaped;
+        return true;
+    }
+
+    private String materialize(int begin, int end, boolean escaped) {
+        if(!escaped) {
+            return src.subSequence(begin, end).toString();
         }
-        if(buff != null && buff.length() > 0) {
-            buff.append(src, begin, end);
-            return buff.toString();
+        int len = 0;
+        for(int i = begin; i < end; i++, len++) {
+            if(src.charAt(i) == ESCAPE) {
+                i++;
+            }
         }
-        return src.subSequence(begin, end).toString();
+        char[] chars = new char[len];
+        int count = 0;
+        for(int i = begin; i < end; i++) {
+            char c = src.charAt(i);
+            if(c == ESCAPE) {
+                if(++i == end) {
+                    break;
+                }
+                c = src.charAt(i);
+            }
+            chars[count++] = c;
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Compare range of source with string, escapes are handled like in {@link #materialize(int, int, boolean)}.
+     */
+    private boolean regionEquals(int begin, int end, boolean escaped, String str) {
+        if(begin < 0) {
+            return false;
+        }
+        int len = str.length();
+        if(!escaped) {
+            if(end - begin != len) {
+                return false;
+            }
+            for(int i = 0; i < len; i++) {
+                if(src.charAt(begin + i) != str.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int j = 0;
+        for(int i = begin; i < end; i++) {
+            char c = src.charAt(i);
+            if(c == ESCAPE) {
+                if(++i == end) {
+                    break;
+                }
+                c = src.charAt(i);
+            }
+            if(j == len || str.charAt(j++) != c) {
+                return false;
+            }
+        }
+        return j == len;
     }
 
     private void skipSpaces() {
@@ -132,24 +220,14 @@ public class MacroParser {
         }
     }
 
-    private void clearBuff() {
-        if(buff != null) {
-            buff.setLength(0);
-        }
-    }
-
-    private StringBuilder getOrCreateBuffer() {
-        if(buff == null) {
-            buff = new StringBuilder();
-        }
-        return buff;
-    }
-
     /**
      * Get value or null
      * @return value or null
      */
     public String getValue() {
+        if(value == null && valueBegin >= 0) {
+            value = materialize(valueBegin, valueEnd, valueEscaped);
+        }
         return value;
     }
 
@@ -158,17 +236,88 @@ public class MacroParser {
      * @return key or null
      */
     public String getKey() {
+        if(key == null && keyBegin >= 0) {
+            key = materialize(keyBegin, keyEnd, keyEscaped);
+        }
         return key;
     }
 
+    /**
+     * Compare current key with string without creating of key string.
+     * @param str string
+     * @return true when key is present and equal to string
+     */
+    public boolean keyEquals(String str) {
+        return regionEquals(keyBegin, keyEnd, keyEscaped, str);
+    }
+
+    /**
+     * Compare current value with string without creating of value string.
+     * @param str string
+     * @return true when value is present and equal to string
+     */
+    public boolean valueEquals(String str) {
+        return regionEquals(valueBegin, valueEnd, valueEscaped, str);
+    }
+
+    /**
+     * Offset of key in source, note that range of key may contain escape symbols.
+     * @see #isKeyEscaped()
+     * @return offset of first char, or -1 when key is absent
+     */
+    public int getKeyBegin() {
+        return keyBegin;
+    }
+
+    /**
+     * Offset after last char of key in source.
+     * @return end offset, it is undefined when key is absent
+     */
+    public int getKeyEnd() {
+        return keyEnd;
+    }
+
+    /**
+     * True when range of key contains escape symbols, therefore it differ from {@link #getKey()}.
+     * @return true when key is escaped
+     */
+    public boolean isKeyEscaped() {
+        return keyBegin >= 0 && keyEscaped;
+    }
+
+    /**
+     * Offset of value in source, note that range of value may contain escape symbols.
+     * @see #isValueEscaped()
+     * @return offset of first char, or -1 when value is absent
+     */
+    public int getValueBegin() {
+        return valueBegin;
+    }
+
+    /**
+     * Offset after last char of value in source.
+     * @return end offset, it is undefined when value is absent
+     */
+    public int getValueEnd() {
+        return valueEnd;
+    }
+
+    /**
+     * True when range of value contains escape symbols, therefore it differ from {@link #getValue()}.
+     * @return true when value is escaped
+     */
+    public boolean isValueEscaped() {
+        return valueBegin >= 0 && valueEscaped;
+    }
+
     /**
      * Like {@link #getKey() } but throw exception when key is null
      * @return key
      */
     public String reqireKey() {
-        if(key == null) {
+        if(keyBegin < 0) {
             throw new NullPointerException("Require key between " + oldPos + " and " + pos + " in '" + src +"'");
         }
-        return key;
+        return getKey();
     }
 }
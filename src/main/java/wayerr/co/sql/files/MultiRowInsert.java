@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Insert of many rows by single statement with repeated VALUES tuple:
+ * <pre>
+ * /*#insertUsers maxRows=64*&#47;
+ * insert into users(id, name) values /*+rows sep=, {*&#47;(:id, :name)/*}*&#47;
+ * </pre>
+ * Rows are split into chunks with sizes of power of two, therefore template has at most
+ * log2({@link #MAX_ROWS}) + 1 variants, each of them is cached by template. Value of parameter
+ * in tuple is taken from map of row by name of parameter, see {@link SqlTemplate.Variant#bind}.
+ * @author wayerr
+ */
+public final class MultiRowInsert {
+
+    /**
+     * Name of template attribute with max count of rows in single statement.
+     */
+    public static final String MAX_ROWS = "maxRows";
+    public static final int DEFAULT_MAX_ROWS = 64;
+
+    private final SqlTemplate template;
+    private final SqlTemplate.Section section;
+    private final int maxRows;
+
+    private MultiRowInsert(SqlTemplate template, SqlTemplate.Section section, int maxRows) {
+        this.template = template;
+        this.section = section;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Insert by template with single repeatable section and without other sections.
+     * Max count of rows is taken from {@link #MAX_ROWS} attribute of template, it is rounded down to power of two.
+     * @param template template
+     * @return insert
+     * @throws IllegalArgumentException when template has not single repeatable section or attribute is not a positive number
+     */
+    public static MultiRowInsert of(SqlTemplate template) {
+        String value = template.getAttributes().get(MAX_ROWS);
+        int maxRows;
+        try {
+            maxRows = value == null? DEFAULT_MAX_ROWS : Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Template '" + template.getName() + "', attribute '" + MAX_ROWS + "': " + e.getMessage(), e);
+        }
+        return of(template, maxRows);
+    }
+
+    /**
+     * Insert by template with single repeatable section and without other sections.
+     * @param template template
+     * @param maxRows max count of rows in single statement, it is rounded down to power of two
+     * @return insert
+     * @throws IllegalArgumentException when template has not single repeatable section or max rows is not positive
+     */
+    public static MultiRowInsert of(SqlTemplate template, int maxRows) {
+        Objects.requireNonNull(template, "template is null");
+        List<SqlTemplate.Section> sections = template.getSections();
+        if(sections.size() != 1 || sections.get(0).getKind() != SqlTemplate.Section.Kind.REPEAT) {
+            throw new IllegalArgumentException("Template '" + template.getName() +
+              "' must have single repeatable section, but has " + sections);
+        }
+        if(maxRows <= 0 || maxRows > SegmentProgram.MAX_COUNT) {
+            throw new IllegalArgumentException("Max rows must be in 1.." + SegmentProgram.MAX_COUNT + ", but is " + maxRows);
+        }
+        return new MultiRowInsert(template, sections.get(0), Integer.highestOneBit(maxRows));
+    }
+
+    public SqlTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Max count of rows in single statement, it is power of two.
+     * @return count of rows
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Variant of query for count of rows.
+     * @param rows count of rows
+     * @return cached variant
+     */
+    public SqlTemplate.Variant getVariant(int rows) {
+        return template.getVariant(rows);
+    }
+
+    /**
+     * Split rows into chunks of cached sizes: chunks of {@link #getMaxRows()} rows, then chunks
+     * with sizes from binary representation of remainder in descending order.
+     * @param rows rows
+     * @return sub lists of rows
+     */
+    public <T> List<List<T>> chunk(List<T> rows) {
+        List<List<T>> chunks = new ArrayList<>();
+        int from = 0;
+        int size = rows.size();
+        while(from < size) {
+            int count = Math.min(maxRows, Integer.highestOneBit(size - from));
+            chunks.add(rows.subList(from, from + count));
+            from += count;
+        }
+        return chunks;
+    }
+
+    /**
+     * Insert rows by chunks, statement of each size is prepared once per call.
+     * @param connection connection
+     * @param rows values of each row by parameter name
+     * @return sum of update counts
+     * @throws SQLException
+     */
+    public int execute(Connection connection, List<? extends Map<String, ?>> rows) throws SQLException {
+        // chunks go in descending order of size, so only last statement is open
+        PreparedStatement statement = null;
+        int statementRows = 0;
+        int count = 0;
+        Map<String, Object> values = new HashMap<>(2);
+        try {
+            for(List<? extends Map<String, ?>> chunk : chunk(rows)) {
+                SqlTemplate.Variant variant = getVariant(chunk.size());
+                if(statementRows != chunk.size()) {
+                    if(statement != null) {
+                        statement.close();
+                    }
+                    statement = connection.prepareStatement(variant.getQuery());
+                    statementRows = chunk.size();
+                }
+                values.put(section.getName(), chunk);
+                variant.bind(statement, values);
+                count += statement.executeUpdate();
+            }
+        } finally {
+            if(statement != null) {
+                statement.close();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiRowInsert{" +
+                "template=" + template.getName() +
+                ", maxRows=" + maxRows +
+                '}';
+    }
+}
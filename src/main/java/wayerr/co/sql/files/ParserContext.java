@@ -18,142 +18,157 @@ package wayerr.co.sql.files;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
 /**
- * Context which hold state of pasing process
+ * Context which hold state of pasing process. Text is read into char block, tokens are
+ * tracked as ranges of this block, when token is not finished at end of block
+ * it moved to begin of block before next read. Text may also be pushed by chunks.
  * @author wayerr
  */
-class ParserContext implements Token {
-
-    private final StringBuilder sb = new StringBuilder();
-    private TokenType state = TokenType.CODE;
-    private int curr;
-    private Runnable tokenHandler;
-    private String raw;
-    
-    void setTokenHandler(Runnable tokenHandler) {
-        this.tokenHandler = tokenHandler;
-    }
+class ParserContext extends AbstractParserContext {
 
-    void parse(Reader text) throws IOException {
-        while((curr = text.read()) != -1) {
-            sb.append((char)curr);
-            if(state == TokenType.NAMED_PARAM && !isParamChar(curr)) {
-                transfer(TokenType.CODE, 1);
-            } else if(curr == '\'') {
-                if(state == TokenType.STRING) {
-                    transfer(TokenType.CODE, 0);
-                } else if(state == TokenType.CODE) {
-                    transfer(TokenType.STRING, 1);
-                }
-            } else if(curr == '\"') {
-                if(state == TokenType.QUOTED_IDENTIFIER) {
-                    transfer(TokenType.CODE, 0);
-                } else if(state == TokenType.CODE) {
-                    transfer(TokenType.QUOTED_IDENTIFIER, 1);
-                }
-            } else if(matchEnd("--")) {
-                if(state == TokenType.CODE) {
-                    transfer(TokenType.COMMENT_LINE, 2);
-                }
-            } else if(curr == '\n' || curr == '\r') {
-                if(state == TokenType.COMMENT_LINE) {
-                    transfer(TokenType.CODE, 1);
-                }
-            } else if(state == TokenType.CODE && matchEnd("/*")) {
-                transfer(TokenType.COMMENT, 2);
-            } else if(state == TokenType.COMMENT && matchEnd("*/")) {
-                transfer(TokenType.CODE, 0);
-            } else if(state == TokenType.CODE && matchParam()) {
-                /*matchParam consume 3 symbols*/
-                transfer(TokenType.NAMED_PARAM, 2);
-            }
-        }
-        transfer(null, 0);
+    /**
+     * Default count of chars which is read from reader at once.
+     */
+    static final int BLOCK_SIZE = 8192;
+
+    private final int blockSize;
+    private char[] buf;
+    /**
+     * Count of valid chars in buffer
+     */
+    private int limit;
+    private final CharSlice raw = new CharSlice();
+    private final CharSlice content = new CharSlice();
+
+    ParserContext() {
+        this(BLOCK_SIZE);
     }
 
-    private boolean matchParam() {
-        int sbOff = sb.length() - 3;
-        if(sbOff < 0) {
-            return false;
+    ParserContext(int blockSize) {
+        if(blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
         }
-        // here we match '[^:]:[-.\\w]'
-        // it doing for ignore postgres type casts like '::int'
-        return sb.charAt(sbOff) != ':' &&
-          sb.charAt(sbOff + 1) == ':' &&
-          isParamChar(sb.charAt(sbOff + 2));
+        this.blockSize = blockSize;
     }
 
-    private boolean isParamChar(int curr) {
-        return curr == '.' || curr == '_' || Character.isLetterOrDigit(curr);
+    /**
+     * Create context which is bound to text, it used for parsing ranges of text
+     * without copying.
+     * @see #parse(int, int)
+     * @param text text
+     */
+    ParserContext(char[] text) {
+        this.blockSize = BLOCK_SIZE;
+        this.buf = text;
     }
 
-    private void transfer(TokenType state, int offset) {
-        int newlen = sb.length() - offset;
-        String tail = sb.substring(newlen);
-        if(newlen > 0) {
-            // it may happen only for CODE state
-            sb.setLength(newlen);
-            tokenHandler.run();
-            raw = null;
+    void parse(Reader text) throws IOException {
+        while(parseBlock(text)) {
+            // next block
         }
-        sb.setLength(0);
-        sb.append(tail);
-        this.state = state;
     }
 
-    private boolean matchEnd(String string) {
-        int strlen = string.length();
-        int sbOff = sb.length() - strlen;
-        if(sbOff < 0) {
-            return false;
+    /**
+     * Read and scan next block of text, it allow to pull tokens incrementally. Must not be called
+     * after it return false.
+     * @param text source
+     * @return false when end of text is reached and last token is handled
+     * @throws IOException
+     */
+    boolean parseBlock(Reader text) throws IOException {
+        if(fill(text)) {
+            scan();
+            return true;
         }
-        for(int i = 0; i < strlen; i++) {
-            char actual = sb.charAt(sbOff + i);
-            char expected = string.charAt(i);
-            if(actual != expected) {
-                return false;
+        finish();
+        return false;
+    }
+
+    @Override
+    void parse(int from, int to) {
+        pos = start = from;
+        limit = to;
+        scan();
+        finish();
+    }
+
+    private void scan() {
+        final char[] buf = this.buf;
+        final int limit = this.limit;
+        while(pos < limit) {
+            if(isSkippable()) {
+                pos = DelimiterScanner.skip(buf, pos, limit);
+                if(pos == limit) {
+                    break;
+                }
             }
+            step(buf[pos++], 1);
         }
-        return true;
     }
 
-    String getToken() {
-        return sb.toString();
+    /**
+     * Scan chunk of text which is pushed by caller, chunk is copied into buffer.
+     * @see #parseEnd()
+     * @param chunk text, it is consumed
+     */
+    void parseChunk(CharBuffer chunk) {
+        int len = chunk.remaining();
+        prepare(len);
+        chunk.get(buf, limit, len);
+        limit += len;
+        scan();
     }
 
-    @Override
-    public TokenType getType() {
-        return state;
+    /**
+     * Handle last token after all chunks.
+     * @see #parseChunk(CharBuffer)
+     */
+    void parseEnd() {
+        finish();
     }
 
-    @Override
-    public String getRaw() {
-        if(raw == null) {
-            raw = sb.toString();
+    /**
+     * Read next block of text into buffer.
+     * @param text source
+     * @return false when end of text is reached
+     * @throws IOException
+     */
+    private boolean fill(Reader text) throws IOException {
+        prepare(1);
+        int read = text.read(buf, limit, buf.length - limit);
+        if(read < 0) {
+            return false;
         }
-        return raw;
+        limit += read;
+        return true;
     }
 
-    @Override
-    public String getContent() {
-        String raw = getRaw();
-        String content = raw;
-        switch(state) {
-            case COMMENT:
-               content = raw.substring(2, raw.length() - 2);
-               break;
-           case COMMENT_LINE:
-               content = raw.substring(2);
-               break;
-           case QUOTED_IDENTIFIER:
-           case STRING:
-               content = raw.substring(1, 1);
-               break;
-            case NAMED_PARAM:
-                content = raw.substring(1);
-                break;
+    /**
+     * Make room for new chars. Unfinished token is moved to begin of buffer,
+     * buffer is grown when token does not fit into it.
+     * @param room count of chars
+     */
+    private void prepare(int room) {
+        if(buf == null) {
+            buf = new char[Math.max(blockSize, room)];
+        }
+        if(start > 0) {
+            int len = limit - start;
+            System.arraycopy(buf, start, buf, 0, len);
+            limit = len;
+            pos -= start;
+            start = 0;
+        }
+        if(buf.length - limit < room) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, limit + room));
         }
-        return content;
+    }
+
+    @Override
+    CharSequence slice(int begin, int end, boolean content) {
+        return (content? this.content : this.raw).set(buf, begin, end - begin);
     }
 }
@@ -0,0 +1,300 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiled sections of template. Query is split by sections into tree of segments once, then each
+ * variant is rendered by walking this tree and is cached. State of sections is packed into long key:
+ * optional section takes one bit, repeatable section takes {@link #COUNT_BITS} bits, expanded parameter
+ * takes {@link #BUCKET_BITS} bits for exponent of its power-of-two bucket. Variants of
+ * templates with few optional sections are kept in array indexed by key, others are kept in map
+ * which is bounded by {@link #MAX_VARIANTS}: count of repetitions is exact, so each distinct size of
+ * list gives own variant, and variants beyond the bound are rendered at each call without caching.
+ * @author wayerr
+ */
+final class SegmentProgram {
+
+    static final int COUNT_BITS = 16;
+    static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+    static final int BUCKET_BITS = 5;
+    /**
+     * Keys shorter than this are indexes of array.
+     */
+    private static final int TABLE_BITS = 8;
+    /**
+     * Max count of variants in map, it bounds memory which is used by values with many distinct sizes.
+     */
+    static final int MAX_VARIANTS = 256;
+
+    private final String query;
+    private final List<SqlTemplate.Param> params;
+    private final List<SqlTemplate.Section> sectionList;
+    private final SqlTemplate.Section[] sections;
+    /**
+     * Index of enclosing section, or -1.
+     */
+    private final int[] parents;
+    /**
+     * Index of last nested section, so nested sections of 'i' are 'i + 1 .. last[i]'.
+     */
+    private final int[] lasts;
+    private final int[] shifts;
+    private final AtomicReferenceArray<SqlTemplate.Variant> table;
+    private final ConcurrentMap<Long, SqlTemplate.Variant> variants;
+
+    SegmentProgram(String query, List<SqlTemplate.Param> params, List<SqlTemplate.Section> sections) {
+        this.query = query;
+        this.params = params;
+        this.sectionList = sections;
+        this.sections = sections.toArray(new SqlTemplate.Section[sections.size()]);
+        int count = this.sections.length;
+        this.parents = new int[count];
+        this.lasts = new int[count];
+        this.shifts = new int[count];
+        int[] stack = new int[count];
+        int depth = 0;
+        int bits = 0;
+        for(int i = 0; i < count; i++) {
+            SqlTemplate.Section section = this.sections[i];
+            if(section.getQueryEnd() > query.length() || section.getParamEnd() > params.size()) {
+                throw new IllegalArgumentException("Section is out of template: " + section);
+            }
+            SqlTemplate.Section prev = null;
+            while(depth > 0 && !contains(this.sections[stack[depth - 1]], section)) {
+                prev = this.sections[stack[--depth]];
+            }
+            // closed section must end before next one
+            if(prev != null && (section.getQueryBegin() < prev.getQueryEnd() || section.getParamBegin() < prev.getParamEnd())) {
+                throw new IllegalArgumentException("Sections are not nested properly: " + prev + " and " + section);
+            }
+            int parent = depth == 0? -1 : stack[depth - 1];
+            parents[i] = parent;
+            for(int p = parent; p >= 0; p = parents[p]) {
+                lasts[p] = i;
+            }
+            lasts[i] = i;
+            stack[depth++] = i;
+            shifts[i] = bits;
+            bits += bits(section.getKind());
+            if(bits > Long.SIZE - 1) {
+                throw new IllegalArgumentException("Too many sections, state of them does not fit into key: " + section);
+            }
+        }
+        this.table = bits <= TABLE_BITS? new AtomicReferenceArray<>(1 << bits) : null;
+        this.variants = table == null? new ConcurrentHashMap<>() : null;
+    }
+
+    private static int bits(SqlTemplate.Section.Kind kind) {
+        switch(kind) {
+            case OPTIONAL:
+                return 1;
+            case EXPAND:
+                return BUCKET_BITS;
+            default:
+                return COUNT_BITS;
+        }
+    }
+
+    /**
+     * Exponent of smallest power of two which is not less than count, empty list takes one placeholder.
+     */
+    static int bucketExponent(int count) {
+        return count <= 1? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    private static boolean contains(SqlTemplate.Section outer, SqlTemplate.Section inner) {
+        return outer.getQueryBegin() <= inner.getQueryBegin() && inner.getQueryEnd() <= outer.getQueryEnd() &&
+          outer.getParamBegin() <= inner.getParamBegin() && inner.getParamEnd() <= outer.getParamEnd();
+    }
+
+    /**
+     * Key of state which is specified by values of sections.
+     * @see SqlTemplate#getVariant(Map)
+     */
+    long key(Map<String, ?> values) {
+        long key = 0;
+        for(int i = 0; i < sections.length; i++) {
+            SqlTemplate.Section section = sections[i];
+            Object value = values.get(section.getName());
+            boolean present = value != null && !Boolean.FALSE.equals(value);
+            key |= state(section, present? 1 : 0, section.getKind() == SqlTemplate.Section.Kind.OPTIONAL? 0 : count(section, value)) << shifts[i];
+        }
+        return key;
+    }
+
+    /**
+     * Key of explicit state.
+     * @see SqlTemplate#getVariant(int...)
+     */
+    long key(int[] state) {
+        if(state.length != sections.length) {
+            throw new IllegalArgumentException("State has " + state.length + " values, but template has " +
+              sections.length + " sections");
+        }
+        long key = 0;
+        for(int i = 0; i < sections.length; i++) {
+            key |= state(sections[i], state[i] != 0? 1 : 0, state[i]) << shifts[i];
+        }
+        return key;
+    }
+
+    private static long state(SqlTemplate.Section section, int present, int count) {
+        switch(section.getKind()) {
+            case OPTIONAL:
+                return present;
+            case EXPAND:
+                return bucketExponent(checkCount(section, count));
+            default:
+                return checkCount(section, count);
+        }
+    }
+
+    private static int count(SqlTemplate.Section section, Object value) {
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof Collection) {
+            return ((Collection<?>)value).size();
+        }
+        if(value.getClass().isArray()) {
+            return Array.getLength(value);
+        }
+        if(section.getKind() == SqlTemplate.Section.Kind.EXPAND) {
+            // single value of expanded parameter
+            return 1;
+        }
+        if(value instanceof Number) {
+            return ((Number)value).intValue();
+        }
+        throw new IllegalArgumentException("Value of section '" + section.getName() +
+          "' must be collection, array or number, but is " + value.getClass().getName());
+    }
+
+    private static int checkCount(SqlTemplate.Section section, int count) {
+        if(count < 0 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("Count of repetitions of section '" + section.getName() +
+              "' must be in 0.." + MAX_COUNT + ", but is " + count);
+        }
+        return count;
+    }
+
+    SqlTemplate.Variant get(long key) {
+        if(table != null) {
+            int index = (int)key;
+            SqlTemplate.Variant variant = table.get(index);
+            if(variant == null) {
+                // only one instance is published, therefore query string of variant is stable
+                table.compareAndSet(index, null, render(key));
+                variant = table.get(index);
+            }
+            return variant;
+        }
+        SqlTemplate.Variant variant = variants.get(key);
+        if(variant == null) {
+            variant = render(key);
+            if(variants.size() >= MAX_VARIANTS) {
+                // concurrent threads may exceed bound slightly, it is not a problem
+                return variant;
+            }
+            SqlTemplate.Variant prev = variants.putIfAbsent(key, variant);
+            if(prev != null) {
+                variant = prev;
+            }
+        }
+        return variant;
+    }
+
+    private SqlTemplate.Variant render(long key) {
+        Output out = new Output(query.length());
+        append(out, key, -1, 0, query.length(), 0, params.size(), -1, 0);
+        int count = out.params.size();
+        return new SqlTemplate.Variant(Utils.trimToString(out.sb), out.params, sectionList,
+          Arrays.copyOf(out.scopes, count), Arrays.copyOf(out.repetitions, count));
+    }
+
+    /**
+     * Append range of query with its nested sections.
+     * @param out output
+     * @param key state of sections
+     * @param parent index of section which is appended, or -1 for whole query
+     * @param scope index of innermost repeated section, or -1
+     * @param repetition current number of repetition of scope
+     */
+    private void append(Output out, long key, int parent, int queryBegin, int queryEnd,
+                        int paramBegin, int paramEnd, int scope, int repetition) {
+        int q = queryBegin;
+        int p = paramBegin;
+        int last = parent < 0? sections.length - 1 : lasts[parent];
+        for(int i = parent + 1; i <= last; i++) {
+            if(parents[i] != parent) {
+                continue;
+            }
+            SqlTemplate.Section section = sections[i];
+            out.sb.append(query, q, section.getQueryBegin());
+            out.addParams(params, p, section.getParamBegin(), scope, repetition);
+            SqlTemplate.Section.Kind kind = section.getKind();
+            int state = (int)(key >>> shifts[i]) & ((1 << bits(kind)) - 1);
+            int count = kind == SqlTemplate.Section.Kind.EXPAND? 1 << state : state;
+            boolean repeat = kind != SqlTemplate.Section.Kind.OPTIONAL;
+            for(int r = 0; r < count; r++) {
+                if(r > 0 && section.getSeparator() != null) {
+                    out.sb.append(section.getSeparator());
+                }
+                append(out, key, i, section.getQueryBegin(), section.getQueryEnd(),
+                  section.getParamBegin(), section.getParamEnd(), repeat? i : scope, repeat? r : repetition);
+            }
+            q = section.getQueryEnd();
+            p = section.getParamEnd();
+        }
+        out.sb.append(query, q, queryEnd);
+        out.addParams(params, p, paramEnd, scope, repetition);
+    }
+
+    private static final class Output {
+        private final StringBuilder sb;
+        private final List<SqlTemplate.Param> params = new ArrayList<>();
+        private int[] scopes = new int[16];
+        private int[] repetitions = new int[16];
+
+        Output(int capacity) {
+            this.sb = new StringBuilder(capacity);
+        }
+
+        void addParams(List<SqlTemplate.Param> src, int from, int to, int scope, int repetition) {
+            for(int i = from; i < to; i++) {
+                int index = params.size();
+                if(index == repetitions.length) {
+                    scopes = Arrays.copyOf(scopes, index * 2);
+                    repetitions = Arrays.copyOf(repetitions, index * 2);
+                }
+                scopes[index] = scope;
+                repetitions[index] = repetition;
+                params.add(src.get(i));
+            }
+        }
+    }
+}
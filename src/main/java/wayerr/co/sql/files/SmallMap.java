@@ -0,0 +1,186 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.*;
+
+/**
+ * Immutable map for few attributes. Keys and values are stored in single flat array, and
+ * lookup is linear scan, which is faster than hashing for small sizes and does not allocate
+ * any entries. Bigger maps have additional hash index of keys.
+ * @author wayerr
+ */
+final class SmallMap extends AbstractMap<String, String> {
+
+    static final SmallMap EMPTY = new SmallMap(new String[0]);
+
+    /**
+     * Maps bigger than it have hash index of keys.
+     */
+    static final int MAX_SIZE = 16;
+
+    // key0, value0, key1, value1 ...
+    private final String[] data;
+    // key -> position in data, it is null for small maps
+    private final Map<String, Integer> index;
+    private Set<Map.Entry<String, String>> entrySet;
+
+    private SmallMap(String[] data) {
+        this(data, null);
+    }
+
+    private SmallMap(String[] data, Map<String, Integer> index) {
+        this.data = data;
+        this.index = index;
+    }
+
+    /**
+     * Immutable copy of map.
+     * @param map map or null
+     * @return immutable map, it is same instance when source is immutable already
+     */
+    static Map<String, String> copyOf(Map<String, String> map) {
+        if(map == null || map.isEmpty()) {
+            return EMPTY;
+        }
+        if(map instanceof SmallMap) {
+            return map;
+        }
+        String[] data = new String[map.size() * 2];
+        int i = 0;
+        for(Map.Entry<String, String> e : map.entrySet()) {
+            data[i++] = e.getKey();
+            data[i++] = e.getValue();
+        }
+        if(map.size() > MAX_SIZE) {
+            return new SmallMap(data, indexOf(data));
+        }
+        return new SmallMap(data);
+    }
+
+    private static Map<String, Integer> indexOf(String[] data) {
+        Map<String, Integer> index = new HashMap<>(data.length);
+        for(int i = 0; i < data.length; i += 2) {
+            index.put(data[i], i);
+        }
+        return index;
+    }
+
+    /**
+     * Copy of map with added or replaced entry, it used for accumulation of few attributes.
+     * @param map map or null
+     * @param key key
+     * @param value value
+     * @return new map
+     */
+    static SmallMap with(SmallMap map, String key, String value) {
+        if(map == null) {
+            return new SmallMap(new String[]{key, value});
+        }
+        String[] src = map.data;
+        int index = map.indexOf(key);
+        if(index >= 0) {
+            String[] data = src.clone();
+            data[index + 1] = value;
+            // positions of keys are not changed
+            return new SmallMap(data, map.index);
+        }
+        String[] data = Arrays.copyOf(src, src.length + 2);
+        data[src.length] = key;
+        data[src.length + 1] = value;
+        if(map.index != null) {
+            Map<String, Integer> copy = new HashMap<>(map.index);
+            copy.put(key, src.length);
+            return new SmallMap(data, copy);
+        }
+        if(data.length / 2 > MAX_SIZE) {
+            return new SmallMap(data, indexOf(data));
+        }
+        return new SmallMap(data);
+    }
+
+    private int indexOf(Object key) {
+        if(index != null) {
+            Integer i = index.get(key);
+            return i == null? -1 : i;
+        }
+        final String[] data = this.data;
+        for(int i = 0; i < data.length; i += 2) {
+            if(Objects.equals(data[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return data.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index < 0? null : data[index + 1];
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        Set<Map.Entry<String, String>> set = entrySet;
+        if(set == null) {
+            set = entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < data.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if(index >= data.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, String> entry = new SimpleImmutableEntry<>(data[index], data[index + 1]);
+                            index += 2;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return data.length / 2;
+                }
+            };
+        }
+        return set;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.JDBCType;
+import java.util.*;
+
+/**
+ * Generator of java classes from templates. Each class has query as constant, typed bind method for
+ * parameters and typed getters for fields, so code does not resolve types and names at runtime.
+ * <p/>
+ * Distinct parameter name become argument of bind method, which is set to all positions of parameter.
+ * Only parameters with 'in' direction are bound. Field getter read column with index of field.
+ * <p/>
+ * Run it at build time by {@link #main(String[])}, for example with exec-maven-plugin
+ * at 'generate-sources' phase.
+ * @author wayerr
+ */
+public final class SourceGenerator {
+
+    /**
+     * Way to access value of sql type in JDBC.
+     */
+    private enum Accessor {
+        BOOLEAN("Boolean", "Boolean", true),
+        BYTE("Byte", "Byte", true),
+        SHORT("Short", "Short", true),
+        INT("Integer", "Int", true),
+        LONG("Long", "Long", true),
+        FLOAT("Float", "Float", true),
+        DOUBLE("Double", "Double", true),
+        DECIMAL("java.math.BigDecimal", "BigDecimal", false),
+        STRING("String", "String", false),
+        NSTRING("String", "NString", false),
+        DATE("java.sql.Date", "Date", false),
+        TIME("java.sql.Time", "Time", false),
+        TIMESTAMP("java.sql.Timestamp", "Timestamp", false),
+        BYTES("byte[]", "Bytes", false),
+        OBJECT("Object", "Object", false);
+
+        private final String javaType;
+        private final String method;
+        private final boolean primitive;
+
+        Accessor(String javaType, String method, boolean primitive) {
+            this.javaType = javaType;
+            this.method = method;
+            this.primitive = primitive;
+        }
+
+        static Accessor of(JDBCType type) {
+            if(type == null) {
+                return OBJECT;
+            }
+            switch(type) {
+                case BIT:
+                case BOOLEAN:
+                    return BOOLEAN;
+                case TINYINT:
+                    return BYTE;
+                case SMALLINT:
+                    return SHORT;
+                case INTEGER:
+                    return INT;
+                case BIGINT:
+                    return LONG;
+                case REAL:
+                    return FLOAT;
+                case FLOAT:
+                case DOUBLE:
+                    return DOUBLE;
+                case NUMERIC:
+                case DECIMAL:
+                    return DECIMAL;
+                case CHAR:
+                case VARCHAR:
+                case LONGVARCHAR:
+                    return STRING;
+                case NCHAR:
+                case NVARCHAR:
+                case LONGNVARCHAR:
+                    return NSTRING;
+                case DATE:
+                    return DATE;
+                case TIME:
+                    return TIME;
+                case TIMESTAMP:
+                    return TIMESTAMP;
+                case BINARY:
+                case VARBINARY:
+                case LONGVARBINARY:
+                    return BYTES;
+                default:
+                    return OBJECT;
+            }
+        }
+    }
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+      "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+      "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+      "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+      "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp", "super",
+      "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile", "while",
+      "true", "false", "null", "_"));
+
+    private SourceGenerator() {
+    }
+
+    /**
+     * Generate class for each template into output directory.
+     * @param templates templates
+     * @param packageName package of generated classes, may be empty
+     * @param outputDir root directory of sources
+     * @throws IOException
+     * @throws IllegalStateException when template has unknown type, conflicting types of parameter, sections,
+     *  or name of class is not unique
+     */
+    public static void generate(Collection<SqlTemplate> templates, String packageName, Path outputDir) throws IOException {
+        Path dir = outputDir;
+        if(!packageName.isEmpty()) {
+            dir = dir.resolve(packageName.replace('.', '/'));
+        }
+        Files.createDirectories(dir);
+        Set<String> classNames = new HashSet<>();
+        for(SqlTemplate template : templates) {
+            String className = className(template.getName());
+            if(!classNames.add(className)) {
+                throw new IllegalStateException("Duplicate class '" + className + "' for template '" + template.getName() + "'");
+            }
+            String source = generate(template, packageName, className);
+            try(Writer w = Files.newBufferedWriter(dir.resolve(className + ".java"), StandardCharsets.UTF_8)) {
+                w.write(source);
+            }
+        }
+    }
+
+    /**
+     * Generate source of class for template.
+     * @param template template
+     * @param packageName package, may be empty
+     * @param className simple name of class
+     * @return java source
+     * @throws IllegalStateException when template has unknown type, conflicting types of parameter or sections
+     */
+    public static String generate(SqlTemplate template, String packageName, String className) {
+        if(!template.getSections().isEmpty()) {
+            // query and positions of such template depend on values
+            throw new IllegalStateException("Template '" + template.getName() + "' has sections, it can not be generated");
+        }
+        // distinct parameters with its positions
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        Map<String, JDBCType> types = new HashMap<>();
+        List<SqlTemplate.Param> params = template.getParams();
+        for(int i = 0; i < params.size(); i++) {
+            SqlTemplate.Param param = params.get(i);
+            if(!param.getDirection().isIn()) {
+                continue;
+            }
+            String name = param.getName();
+            positions.computeIfAbsent(name, k -> new ArrayList<>()).add(i + 1);
+            JDBCType type = resolve(template, param);
+            if(type != null) {
+                JDBCType prev = types.putIfAbsent(name, type);
+                if(prev != null && prev != type) {
+                    throw new IllegalStateException("Parameter '" + name + "' of template '" + template.getName() +
+                      "' has conflicting types: " + prev + " and " + type);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if(!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import java.sql.PreparedStatement;\n");
+        sb.append("import java.sql.ResultSet;\n");
+        sb.append("import java.sql.SQLException;\n");
+        sb.append("import java.sql.Types;\n\n");
+        sb.append("/**\n * Generated from template '").append(javadoc(template.getName())).append("', do not edit.\n */\n");
+        sb.append("public final class ").append(className).append(" {\n\n");
+        sb.append("    public static final String NAME = ").append(literal(template.getName())).append(";\n");
+        sb.append("    public static final String QUERY = ").append(literal(template.getQuery())).append(";\n\n");
+        sb.append("    private ").append(className).append("() {\n    }\n\n");
+
+        Set<String> args = new HashSet<>();
+        args.add("ps");
+        sb.append("    public static void bind(PreparedStatement ps");
+        List<String> argNames = new ArrayList<>();
+        for(String name : positions.keySet()) {
+            String arg = unique(args, identifier(name, false));
+            argNames.add(arg);
+            sb.append(", ").append(Accessor.of(types.get(name)).javaType).append(' ').append(arg);
+        }
+        sb.append(") throws SQLException {\n");
+        int argIndex = 0;
+        for(Map.Entry<String, List<Integer>> e : positions.entrySet()) {
+            String arg = argNames.get(argIndex++);
+            JDBCType type = types.get(e.getKey());
+            Accessor accessor = Accessor.of(type);
+            String typeCode = type == null? "Types.NULL" : "Types." + type.getName();
+            sb.append("        if(").append(arg).append(" == null) {\n");
+            for(int pos : e.getValue()) {
+                sb.append("            ps.setNull(").append(pos).append(", ").append(typeCode).append(");\n");
+            }
+            sb.append("        } else {\n");
+            for(int pos : e.getValue()) {
+                sb.append("            ps.set").append(accessor.method).append('(').append(pos).append(", ").append(arg);
+                if(accessor == Accessor.OBJECT && type != null) {
+                    sb.append(", ").append(typeCode);
+                }
+                sb.append(");\n");
+            }
+            sb.append("        }\n");
+        }
+        sb.append("    }\n");
+
+        Set<String> getters = new HashSet<>(Arrays.asList("bind"));
+        List<SqlTemplate.Field> fields = template.getFields();
+        for(int i = 0; i < fields.size(); i++) {
+            SqlTemplate.Field field = fields.get(i);
+            Accessor accessor = Accessor.of(resolve(template, field));
+            String getter = unique(getters, "get" + identifier(field.getName(), true));
+            int column = i + 1;
+            sb.append("\n    public static ").append(accessor.javaType).append(' ').append(getter)
+              .append("(ResultSet rs) throws SQLException {\n");
+            if(accessor.primitive) {
+                String primitive = accessor == Accessor.INT? "int" : accessor.method.toLowerCase(Locale.ROOT);
+                sb.append("        ").append(primitive).append(" value = rs.get").append(accessor.method)
+                  .append('(').append(column).append(");\n");
+                sb.append("        return rs.wasNull()? null : value;\n");
+            } else {
+                sb.append("        return rs.get").append(accessor.method).append('(').append(column).append(");\n");
+            }
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static JDBCType resolve(SqlTemplate template, NamedChunk chunk) {
+        try {
+            return JdbcTypes.resolve(chunk.getType());
+        } catch(IllegalArgumentException e) {
+            throw new IllegalStateException("Template '" + template.getName() + "', '" + chunk.getName() + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Make java class name from template name.
+     * @param name name of template
+     * @return valid java identifier
+     */
+    static String className(String name) {
+        return identifier(name, true);
+    }
+
+    private static String identifier(String name, boolean upperFirst) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean upper = upperFirst;
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(!Character.isJavaIdentifierPart(c) || c == '$') {
+                // 'a.b-c' become 'aBC'
+                upper = sb.length() > 0 || upperFirst;
+                continue;
+            }
+            sb.append(upper? Character.toUpperCase(c) : c);
+            upper = false;
+        }
+        if(sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        String id = sb.toString();
+        return KEYWORDS.contains(id)? id + "_" : id;
+    }
+
+    private static String unique(Set<String> used, String id) {
+        String res = id;
+        for(int i = 2; !used.add(res); i++) {
+            res = id + i;
+        }
+        return res;
+    }
+
+    private static String javadoc(String str) {
+        return str.replace("*/", "*&#47;");
+    }
+
+    private static String literal(String str) {
+        StringBuilder sb = new StringBuilder(str.length() + 2);
+        sb.append('"');
+        for(int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch(c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if(c < ' ' || c > '~') {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Build time entry point: {@code SourceGenerator sourceDir outputDir package [glob]}.
+     * @param args arguments
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3) {
+            throw new IllegalArgumentException("Usage: SourceGenerator <sourceDir> <outputDir> <package> [glob]");
+        }
+        Path sourceDir = Paths.get(args[0]);
+        String glob = args.length > 3? args[3] : TemplateLoader.DEFAULT_GLOB;
+        Map<String, SqlTemplate> templates = new TreeMap<>(TemplateLoader.getDefault().load(sourceDir, glob));
+        generate(templates.values(), args[2], Paths.get(args[1]));
+    }
+}
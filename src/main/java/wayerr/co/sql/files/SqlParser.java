@@ -17,12 +17,34 @@
 package wayerr.co.sql.files;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Parse sql file to sequence of {@link SqlTemplate}
@@ -34,6 +56,9 @@ public class SqlParser {
     public static class Builder {
 
         private TemplateParser templateParser = new DefaultTemplateParser();
+        private Executor executor;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private Interner interner;
 
         public TemplateParser getTemplateParser() {
             return templateParser;
@@ -48,15 +73,138 @@ public class SqlParser {
             this.templateParser = templateParser;
         }
 
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Executor for parallel parsing of single text. Text is split by template headers into segments
+         * which is parsed concurrently, then templates are passed to consumer in source order.
+         * Note that in this mode text from reader is fully read into memory, and template parser
+         * must not keep any state between templates. When executor is null text is parsed sequentially.
+         * @param executor executor or null
+         * @return this
+         */
+        public Builder executor(Executor executor) {
+            setExecutor(executor);
+            return this;
+        }
+
+        public void setExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        /**
+         * Minimal size of segment (in chars or bytes) which is parsed as single task in parallel mode,
+         * small templates are grouped into one segment.
+         * @see #executor(Executor)
+         * @param segmentSize size of segment
+         * @return this
+         */
+        public Builder segmentSize(int segmentSize) {
+            setSegmentSize(segmentSize);
+            return this;
+        }
+
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public Interner getInterner() {
+            return interner;
+        }
+
+        /**
+         * Pool of canonical names, types, attributes, fields and parameters, which is shared by
+         * all templates of parser. When it is null (by default) each template has own instances.
+         * @param interner pool or null
+         * @return this
+         */
+        public Builder interner(Interner interner) {
+            setInterner(interner);
+            return this;
+        }
+
+        public void setInterner(Interner interner) {
+            this.interner = interner;
+        }
+
         public SqlParser build() {
             return new SqlParser(this);
         }
     }
 
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Templates of one segment of text.
+     */
+    private static final class Segment {
+        private final List<SqlTemplate> templates;
+        /**
+         * False when state of builder at end of segment can affect next segment, like not closed sample value.
+         */
+        private final boolean complete;
+
+        Segment(List<SqlTemplate> templates, boolean complete) {
+            this.templates = templates;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Pull templates from text, it read text by blocks only when queue of parsed templates is empty.
+     */
+    private final class TemplateSpliterator extends Spliterators.AbstractSpliterator<SqlTemplate> {
+        private final Reader text;
+        private final ParserContext ctx = new ParserContext();
+        private final ArrayDeque<SqlTemplate> queue = new ArrayDeque<>();
+        private final TemplateBuilder tb = createBuilder(ctx, queue::add);
+        private boolean end;
+
+        TemplateSpliterator(Reader text) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.text = text;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SqlTemplate> action) {
+            while(queue.isEmpty() && !end) {
+                try {
+                    if(!ctx.parseBlock(text)) {
+                        tb.close();
+                        end = true;
+                    }
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            SqlTemplate template = queue.poll();
+            if(template == null) {
+                return false;
+            }
+            action.accept(template);
+            return true;
+        }
+    }
+
     private final TemplateParser templateParser;
+    private final Executor executor;
+    private final int segmentSize;
+    private final Interner interner;
 
     SqlParser(Builder builder) {
         this.templateParser = Objects.requireNonNull(builder.templateParser, "templateParser is null");
+        this.executor = builder.executor;
+        if(builder.segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + builder.segmentSize);
+        }
+        this.segmentSize = builder.segmentSize;
+        this.interner = builder.interner;
     }
 
     public static Builder builder() {
@@ -67,6 +215,15 @@ public class SqlParser {
         return new Builder().build();
     }
 
+    /**
+     * Pool of canonical instances, it also report count of saved bytes.
+     * @see Builder#interner(Interner)
+     * @return pool or null
+     */
+    public Interner getInterner() {
+        return interner;
+    }
+
     /**
      * Parse specified sql template to consumer.
      * @param text template
@@ -74,13 +231,291 @@ public class SqlParser {
      * @throws IOException
      */
     public void parse(Reader text, Consumer<SqlTemplate> templatesConsumer) throws IOException {
-        TemplateBuilder tb = new TemplateBuilder(templateParser, templatesConsumer);
+        if(executor != null) {
+            CharBuffer chars = Utils.readFully(text);
+            char[] arr = chars.array();
+            parseSegments(() -> new ParserContext(arr), 0, chars.limit(), templatesConsumer);
+            return;
+        }
         ParserContext ctx = new ParserContext();
+        TemplateBuilder tb = createBuilder(ctx, templatesConsumer);
+        ctx.parse(text);
+        tb.close();
+    }
+
+    /**
+     * Parse UTF-8 (or ASCII) sql template to consumer. Bytes are tokenized without decoder,
+     * only text of tokens is decoded. Stream is not closed.
+     * @param text template
+     * @param templatesConsumer consumer
+     * @throws IOException
+     */
+    public void parse(InputStream text, Consumer<SqlTemplate> templatesConsumer) throws IOException {
+        if(executor != null) {
+            ByteBuffer bytes = Utils.readFully(text);
+            parseSegments(() -> new Utf8ParserContext(bytes), 0, bytes.limit(), templatesConsumer);
+            return;
+        }
+        Utf8ParserContext ctx = new Utf8ParserContext();
+        TemplateBuilder tb = createBuilder(ctx, templatesConsumer);
+        ctx.parse(text);
+        tb.close();
+    }
+
+    /**
+     * Parse UTF-8 (or ASCII) sql template from range of array to consumer. Array is not copied,
+     * therefore it must not be changed while parsing.
+     * @see #parse(InputStream, Consumer)
+     * @param text array with template
+     * @param offset begin of template
+     * @param len count of bytes
+     * @param templatesConsumer consumer
+     * @throws IOException
+     */
+    public void parse(byte[] text, int offset, int len, Consumer<SqlTemplate> templatesConsumer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text, offset, len);
+        if(executor != null) {
+            parseSegments(() -> new Utf8ParserContext(bytes), offset, offset + len, templatesConsumer);
+            return;
+        }
+        Utf8ParserContext ctx = new Utf8ParserContext();
+        TemplateBuilder tb = createBuilder(ctx, templatesConsumer);
+        ctx.parse(bytes);
+        tb.close();
+    }
+
+    /**
+     * Lazy stream of templates from text. Text is read only as far as needed to produce next template,
+     * therefore short-circuiting operations like findFirst stop reading early. Stream is always
+     * sequential, executor of parser is not used. Reader is not closed by stream.
+     * <p/>
+     * IO errors are thrown as {@link UncheckedIOException} from terminal operation.
+     * @param text template
+     * @return stream of templates
+     */
+    public Stream<SqlTemplate> stream(Reader text) {
+        Objects.requireNonNull(text, "text is null");
+        return StreamSupport.stream(new TemplateSpliterator(text), false);
+    }
+
+    /**
+     * Create parser which take text by chunks, it does not block on reading.
+     * @see IncrementalParser
+     * @param templatesConsumer consumer of templates
+     * @return new parser
+     */
+    public IncrementalParser incremental(Consumer<SqlTemplate> templatesConsumer) {
+        return new IncrementalParser(this, templatesConsumer);
+    }
+
+    /**
+     * Parse specified sql file to consumer. File is mapped into memory, when charset is UTF-8 or ASCII
+     * then its bytes is parsed directly, otherwise file is read through decoder.
+     * @param path file
+     * @param charset charset of file
+     * @param templatesConsumer consumer
+     * @throws IOException
+     */
+    public void parse(Path path, Charset charset, Consumer<SqlTemplate> templatesConsumer) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(!Utf8ParserContext.isSupported(charset)) {
+                Reader reader = Channels.newReader(channel, charset.newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+                parse(reader, templatesConsumer);
+                return;
+            }
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large for mapping: " + path + " has " + size + " bytes");
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(executor != null) {
+                parseSegments(() -> new Utf8ParserContext(bytes), 0, (int)size, templatesConsumer);
+                return;
+            }
+            Utf8ParserContext ctx = new Utf8ParserContext();
+            TemplateBuilder tb = createBuilder(ctx, templatesConsumer);
+            ctx.parse(bytes);
+            tb.close();
+        }
+    }
+
+    /**
+     * Split text into segments which begin with template headers, then parse its concurrently.
+     * @param contexts factory of contexts which is bound to text
+     * @param from begin of text
+     * @param to end of text
+     * @param templatesConsumer consumer
+     */
+    private void parseSegments(Supplier<AbstractParserContext> contexts, int from, int to,
+                               Consumer<SqlTemplate> templatesConsumer) throws IOException {
+        // pre-scan use same tokenizer, therefore headers is found exactly like at parsing
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(from);
+        boolean[] headerFound = new boolean[1];
+        AbstractParserContext scanner = contexts.get();
+        scanner.setTokenHandler(() -> {
+            if(!TemplateBuilder.isTemplateHeader(scanner)) {
+                return;
+            }
+            if(!headerFound[0]) {
+                // first segment also contains text before first header
+                headerFound[0] = true;
+                return;
+            }
+            if(scanner.start - bounds.get(bounds.size() - 1) >= segmentSize) {
+                bounds.add(scanner.start);
+            }
+        });
+        scanner.parse(from, to);
+        bounds.add(to);
+        List<Segment> segments = new ArrayList<>();
+        if(bounds.size() == 2) {
+            segments.add(parseSegment(contexts.get(), from, to));
+        } else {
+            List<CompletableFuture<Segment>> futures = new ArrayList<>();
+            for(int i = 1; i < bounds.size(); i++) {
+                int begin = bounds.get(i - 1);
+                int end = bounds.get(i);
+                futures.add(CompletableFuture.supplyAsync(() -> parseSegment(contexts.get(), begin, end), executor));
+            }
+            segments.addAll(Utils.joinAll(futures));
+            boolean complete = true;
+            for(int i = 0; i < segments.size() - 1; i++) {
+                complete &= segments.get(i).complete;
+            }
+            if(!complete) {
+                // segment can not be parsed independently, so we parse whole text
+                segments.clear();
+                segments.add(parseSegment(contexts.get(), from, to));
+            }
+        }
+        for(Segment segment : segments) {
+            segment.templates.forEach(templatesConsumer);
+        }
+    }
+
+    /**
+     * Parse range of text.
+     * @param last range ends at end of text, so it may end inside unclosed sample value like whole text
+     * @return templates, or null when range which is not last ends inside unclosed sample value
+     */
+    List<SqlTemplate> parseRange(AbstractParserContext ctx, int from, int to, boolean last) {
+        Segment segment = parseSegment(ctx, from, to);
+        return segment.complete || last? segment.templates : null;
+    }
+
+    private Segment parseSegment(AbstractParserContext ctx, int from, int to) {
+        List<SqlTemplate> templates = new ArrayList<>();
+        TemplateBuilder tb = createBuilder(ctx, templates::add);
+        ctx.parse(from, to);
+        tb.close();
+        return new Segment(templates, tb.getTokenFilter() == null);
+    }
+
+    /**
+     * Scan text for template headers and make index which parse templates on demand.
+     * Text from reader is fully read into memory.
+     * @see TemplateIndex
+     * @param text template
+     * @return index of templates
+     * @throws IOException
+     */
+    public TemplateIndex index(Reader text) throws IOException {
+        CharBuffer chars = Utils.readFully(text);
+        char[] arr = chars.array();
+        Map<String, TemplateIndex.Entry> entries = new HashMap<>();
+        indexSource(() -> new ParserContext(arr), chars.limit(), entries);
+        return new TemplateIndex(entries);
+    }
+
+    /**
+     * Scan sql file for template headers and make index which parse templates on demand.
+     * File is mapped into memory like in {@link #parse(Path, Charset, Consumer)}, and must not be
+     * changed while index is used.
+     * @see TemplateIndex
+     * @param path file
+     * @param charset charset of file
+     * @return index of templates
+     * @throws IOException
+     */
+    public TemplateIndex index(Path path, Charset charset) throws IOException {
+        Map<String, TemplateIndex.Entry> entries = new HashMap<>();
+        indexFile(path, charset, entries);
+        return new TemplateIndex(entries);
+    }
+
+    /**
+     * Add entries of file to index, later entry with same name replace previous.
+     */
+    void indexFile(Path path, Charset charset, Map<String, TemplateIndex.Entry> entries) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(!Utf8ParserContext.isSupported(charset)) {
+                Reader reader = Channels.newReader(channel, charset.newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+                CharBuffer chars = Utils.readFully(reader);
+                char[] arr = chars.array();
+                indexSource(() -> new ParserContext(arr), chars.limit(), entries);
+                return;
+            }
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large for mapping: " + path + " has " + size + " bytes");
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            indexSource(() -> new Utf8ParserContext(bytes), (int)size, entries);
+        }
+    }
+
+    private void indexSource(Supplier<AbstractParserContext> contexts, int length, Map<String, TemplateIndex.Entry> entries) {
+        TemplateIndex.Source source = new TemplateIndex.Source(this, contexts, length);
+        // pre-scan use same tokenizer, therefore headers is found exactly like at parsing
+        List<String> names = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        TemplateBuilder tb = new TemplateBuilder(templateParser, (template) -> {});
+        AbstractParserContext scanner = contexts.get();
+        // depth of comments which end with '{' (sample values and sections), and count of headers inside them
+        int[] state = new int[2];
+        scanner.setTokenHandler(() -> {
+            if(TemplateBuilder.isTemplateHeader(scanner)) {
+                if(state[0] > 0) {
+                    state[1]++;
+                }
+                names.add(tb.parseTemplateName(scanner.getContentChars()));
+                starts.add(scanner.start);
+            } else if(!scanner.getType().isCode()) {
+                CharSequence content = scanner.getContentChars();
+                if(Utils.trimmedEquals(content, "}")) {
+                    state[0] = Math.max(0, state[0] - 1);
+                } else if(Utils.trimmedEndsWith(content, '{')) {
+                    state[0]++;
+                }
+            }
+        });
+        scanner.parse(0, length);
+        if(state[1] > 0) {
+            // header may be inside sample value, so range of template depends on previous ones,
+            // therefore whole text is parsed once before entries are published
+            for(SqlTemplate template : parseRange(contexts.get(), 0, length, true)) {
+                entries.put(template.getName(), source.addEntry(template));
+            }
+            return;
+        }
+        for(int i = 0; i < names.size(); i++) {
+            int end = i + 1 < starts.size()? starts.get(i + 1) : length;
+            String name = names.get(i);
+            entries.put(name, source.addEntry(name, starts.get(i), end));
+        }
+    }
+
+    TemplateBuilder createBuilder(AbstractParserContext ctx, Consumer<SqlTemplate> templatesConsumer) {
+        TemplateBuilder tb = new TemplateBuilder(templateParser, templatesConsumer, interner);
         ctx.setTokenHandler(() -> {
             tb.accept(ctx);
         });
-        ctx.parse(text);
-        tb.close();
+        return tb;
     }
 
     /**
@@ -97,4 +532,46 @@ public class SqlParser {
         return Collections.unmodifiableMap(map);
     }
 
+    /**
+     * Parse specified UTF-8 sql template to immutable map of templates.
+     * @see #parse(InputStream, Consumer)
+     * @param text template
+     * @return map with (template.name, template) entries.
+     * @throws IOException
+     */
+    public Map<String, SqlTemplate> parseToMap(InputStream text) throws IOException {
+        Map<String, SqlTemplate> map = new HashMap<>();
+        parse(text, (template) -> {
+            map.put(template.getName(), template);
+        });
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Parse specified UTF-8 sql file to immutable map of templates.
+     * @see #parse(Path, Charset, Consumer)
+     * @param path file
+     * @return map with (template.name, template) entries.
+     * @throws IOException
+     */
+    public Map<String, SqlTemplate> parseToMap(Path path) throws IOException {
+        return parseToMap(path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse specified sql file to immutable map of templates.
+     * @see #parse(Path, Charset, Consumer)
+     * @param path file
+     * @param charset charset of file
+     * @return map with (template.name, template) entries.
+     * @throws IOException
+     */
+    public Map<String, SqlTemplate> parseToMap(Path path, Charset charset) throws IOException {
+        Map<String, SqlTemplate> map = new HashMap<>();
+        parse(path, charset, (template) -> {
+            map.put(template.getName(), template);
+        });
+        return Collections.unmodifiableMap(map);
+    }
+
 }
@@ -17,6 +17,7 @@
 package wayerr.co.sql.files;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Contains sql template with descripotion of fileds and parameters.
@@ -26,8 +27,12 @@ import java.util.*;
  */
 public final class SqlTemplate {
 
+    private static final int[] NO_POSITIONS = new int[0];
+
     public enum Direction {
-        IN(true, false), OUT(false, true), INOUT(true, true);
+        IN(true, false, "in"), OUT(false, true, "out"), INOUT(true, true, "inout");
+
+        private static final Direction[] VALUES = values();
 
         public static Direction from(String val) {
             if(val == null) {
@@ -35,26 +40,32 @@ public final class SqlTemplate {
             }
             //val.toUpperCase() will copy string that may
             //  be redundant in some cases
-            switch(val) {
-                case "in":
-                case "IN":
-                    return IN;
-                case "out":
-                case "OUT":
-                    return OUT;
-                case "inout":
-                case "INOUT":
-                    return INOUT;
+            return match(val::equals);
+        }
+
+        /**
+         * Direction which name in lower or upper case is matched by predicate, so parser can compare
+         * its source text without creating of value string.
+         * @param matcher predicate which compare value with name of direction
+         * @return direction or null
+         */
+        static Direction match(Predicate<String> matcher) {
+            for(Direction direction : VALUES) {
+                if(matcher.test(direction.lowerName) || matcher.test(direction.name())) {
+                    return direction;
+                }
             }
             return null;
         }
 
         private final boolean out;
         private final boolean in;
+        private final String lowerName;
 
-        Direction(boolean in, boolean out) {
+        Direction(boolean in, boolean out, String lowerName) {
             this.in = in;
             this.out = out;
+            this.lowerName = lowerName;
         }
 
         public boolean isIn() {
@@ -147,10 +158,275 @@ public final class SqlTemplate {
 
     }
 
+    /**
+     * Section - optional or repeatable part of query, like <code>/*?name {*&#47;...&#47;*}*&#47;</code>.
+     * It covers range of query text and range of parameters, sections are nested properly
+     * and listed in order of its begin.
+     * @see SqlTemplate#getVariant(Map)
+     */
+    public static class Section extends NamedChunk {
+
+        public enum Kind {
+            /**
+             * Section is rendered once when its value is present.
+             */
+            OPTIONAL,
+            /**
+             * Section is rendered for each element of its value.
+             */
+            REPEAT,
+            /**
+             * Parameter with 'expand=true' attribute, it is rendered for each element of its value, but count
+             * of placeholders is rounded up to power of two, so list of any size uses one of few queries.
+             */
+            EXPAND
+        }
+
+        private final Kind kind;
+        private final String separator;
+        private final int queryBegin;
+        private final int queryEnd;
+        private final int paramBegin;
+        private final int paramEnd;
+
+        /**
+         * Create section without ranges, it used by {@link TemplateParser}.
+         */
+        public Section(String name, Kind kind, String separator, Map<String, String> attributes) {
+            this(name, kind, separator, attributes, 0, 0, 0, 0);
+        }
+
+        public Section(String name, Kind kind, String separator, Map<String, String> attributes,
+                       int queryBegin, int queryEnd, int paramBegin, int paramEnd) {
+            super(name, null, attributes);
+            this.kind = Objects.requireNonNull(kind, "kind is null");
+            this.separator = separator;
+            if(queryBegin < 0 || queryEnd < queryBegin || paramBegin < 0 || paramEnd < paramBegin) {
+                throw new IllegalArgumentException("Invalid ranges of section '" + name + "': query " +
+                  queryBegin + ".." + queryEnd + ", params " + paramBegin + ".." + paramEnd);
+            }
+            this.queryBegin = queryBegin;
+            this.queryEnd = queryEnd;
+            this.paramBegin = paramBegin;
+            this.paramEnd = paramEnd;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Text between repetitions of {@link Kind#REPEAT} section, 'sep' attribute of macro.
+         * @return separator or null
+         */
+        public String getSeparator() {
+            return separator;
+        }
+
+        /**
+         * Begin of section in {@link SqlTemplate#getQuery()}.
+         * @return offset of first char
+         */
+        public int getQueryBegin() {
+            return queryBegin;
+        }
+
+        public int getQueryEnd() {
+            return queryEnd;
+        }
+
+        /**
+         * Index of first parameter of section in {@link SqlTemplate#getParams()}.
+         * @return index
+         */
+        public int getParamBegin() {
+            return paramBegin;
+        }
+
+        public int getParamEnd() {
+            return paramEnd;
+        }
+
+        Section withRanges(int queryBegin, int queryEnd, int paramBegin, int paramEnd) {
+            return new Section(name, kind, separator, getAttributes(), queryBegin, queryEnd, paramBegin, paramEnd);
+        }
+
+        @Override
+        public String toString() {
+            return "Section{" +
+                    "name=" + name +
+                    ", kind=" + kind +
+                    ", separator=" + separator +
+                    ", query=" + queryBegin + ".." + queryEnd +
+                    ", params=" + paramBegin + ".." + paramEnd +
+                    ", attributes=" + getAttributes() +
+                    '}';
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = super.hashCode();
+            hash = 37 * hash + Objects.hashCode(this.kind);
+            hash = 37 * hash + Objects.hashCode(this.separator);
+            hash = 37 * hash + this.queryBegin;
+            hash = 37 * hash + this.queryEnd;
+            hash = 37 * hash + this.paramBegin;
+            hash = 37 * hash + this.paramEnd;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!super.equals(obj)) {
+                return false;
+            }
+            final Section other = (Section)obj;
+            return this.kind == other.kind &&
+              Objects.equals(this.separator, other.separator) &&
+              this.queryBegin == other.queryBegin &&
+              this.queryEnd == other.queryEnd &&
+              this.paramBegin == other.paramBegin &&
+              this.paramEnd == other.paramEnd;
+        }
+    }
+
+    /**
+     * Rendered variant of template with sections. Instances are cached by template, therefore
+     * same state of sections gives same instance and same query string. Only first
+     * 256 variants of template with repeatable sections are cached,
+     * others are rendered at each call, it is suitable to use {@link Section.Kind#EXPAND} parameters
+     * for lists of arbitrary size.
+     */
+    public static final class Variant {
+        private final String query;
+        private final List<Param> params;
+        private final List<Section> sections;
+        /**
+         * Index of innermost repeated section of each parameter, or -1.
+         */
+        private final int[] scopes;
+        private final int[] repetitions;
+        private volatile int[] sqlTypes;
+
+        Variant(String query, List<Param> params, List<Section> sections, int[] scopes, int[] repetitions) {
+            this.query = query;
+            this.params = Collections.unmodifiableList(params);
+            this.sections = sections;
+            this.scopes = scopes;
+            this.repetitions = repetitions;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * Parameters in order of placeholders, parameters of repeated section are repeated too.
+         * @return unmodifiable list of parameters
+         */
+        public List<Param> getParams() {
+            return params;
+        }
+
+        /**
+         * Number of repetition of innermost repeated section which contains parameter.
+         * @param index index of parameter in {@link #getParams()}
+         * @return zero-based number, zero for parameter outside of repeated sections
+         */
+        public int getRepetition(int index) {
+            return repetitions[index];
+        }
+
+        /**
+         * Bind values to statement which is prepared from {@link #getQuery()}. Value of parameter inside
+         * repeated section is taken from element of section value: element itself when parameter has name of
+         * section, otherwise value by parameter name when element is a map. Placeholders of expanded parameter
+         * beyond its list are padded by last element, or by null for empty list. Other values are taken by
+         * parameter name, absent value is bound as null. Parameters with 'out' direction are skipped.
+         * @param statement statement
+         * @param values values by names of parameters and sections
+         * @throws SQLException
+         * @throws IllegalStateException when parameter has unknown type
+         */
+        public void bind(java.sql.PreparedStatement statement, Map<String, ?> values) throws java.sql.SQLException {
+            int[] types = sqlTypes();
+            // elements of sections are resolved once per call
+            List<?>[] elements = null;
+            for(int i = 0; i < params.size(); i++) {
+                Param param = params.get(i);
+                if(!param.getDirection().isIn()) {
+                    continue;
+                }
+                Object value;
+                int scope = scopes[i];
+                if(scope < 0) {
+                    value = values.get(param.getName());
+                } else {
+                    if(elements == null) {
+                        elements = new List<?>[sections.size()];
+                    }
+                    List<?> list = elements[scope];
+                    if(list == null) {
+                        list = elements[scope] = Utils.asList(values.get(sections.get(scope).getName()));
+                    }
+                    value = element(param, sections.get(scope), list, repetitions[i], values);
+                }
+                BindingPlan.setValue(statement, i + 1, types[i], value);
+            }
+        }
+
+        private static Object element(Param param, Section section, List<?> list, int repetition, Map<String, ?> values) {
+            Object element;
+            if(repetition < list.size()) {
+                element = list.get(repetition);
+            } else if(section.getKind() == Section.Kind.EXPAND && !list.isEmpty()) {
+                element = list.get(list.size() - 1);
+            } else {
+                element = null;
+            }
+            if(param.getName().equals(section.getName())) {
+                return element;
+            }
+            if(element instanceof Map) {
+                return ((Map<?, ?>)element).get(param.getName());
+            }
+            return values.get(param.getName());
+        }
+
+        private int[] sqlTypes() {
+            int[] types = sqlTypes;
+            if(types == null) {
+                types = new int[params.size()];
+                for(int i = 0; i < types.length; i++) {
+                    Param param = params.get(i);
+                    try {
+                        types[i] = BindingPlan.sqlType(param);
+                    } catch(IllegalArgumentException e) {
+                        throw new IllegalStateException("Parameter '" + param.getName() + "': " + e.getMessage(), e);
+                    }
+                }
+                sqlTypes = types;
+            }
+            return types;
+        }
+
+        @Override
+        public String toString() {
+            return "Variant{" +
+                    "query=" + query +
+                    ", params=" + params +
+                    '}';
+        }
+    }
+
     public static class Builder {
         private String name;
         private final List<Field> fields = new ArrayList<>();
         private final List<Param> params = new ArrayList<>();
+        private final List<Section> sections = new ArrayList<>();
         private final Map<String, String> attributes = new HashMap<>();
         private String query;
 
@@ -198,6 +474,15 @@ public final class SqlTemplate {
             return this;
         }
 
+        public List<Section> getSections() {
+            return sections;
+        }
+
+        public Builder addSection(Section section) {
+            sections.add(section);
+            return this;
+        }
+
         public Map<String, String> getAttributes() {
             return attributes;
         }
@@ -212,11 +497,12 @@ public final class SqlTemplate {
             this.query = null;
             this.fields.clear();
             this.params.clear();
+            this.sections.clear();
             this.attributes.clear();
         }
 
         public SqlTemplate build() {
-            return new SqlTemplate(name, query, fields, params, attributes);
+            return new SqlTemplate(name, query, fields, params, sections, attributes);
         }
     }
 
@@ -224,14 +510,30 @@ public final class SqlTemplate {
     private final List<Field> fields;
     private final List<Param> params;
     private final String query;
+    private final List<Section> sections;
     private final Map<String, String> attributes;
+    private final SegmentProgram program;
+    private volatile Map<String, int[]> paramPositions;
+    private volatile BindingPlan bindingPlan;
+    private volatile Variant variant;
 
     SqlTemplate(String name, String query, List<Field> fields, List<Param> params, Map<String, String> attributes) {
+        this(name, query, fields, params, null, attributes);
+    }
+
+    /**
+     * @throws IllegalArgumentException when sections are out of query or not nested
+     */
+    SqlTemplate(String name, String query, List<Field> fields, List<Param> params, List<Section> sections,
+                Map<String, String> attributes) {
         this.name = name;
         this.query = query;
         this.fields = Utils.immutableCopy(fields);
         this.params = Utils.immutableCopy(params);
+        this.sections = Utils.immutableCopy(sections);
         this.attributes = Utils.immutableCopy(attributes);
+        // sections are compiled once, variants are rendered on demand
+        this.program = this.sections.isEmpty()? null : new SegmentProgram(query, this.params, this.sections);
     }
 
     public static Builder builder() {
@@ -262,12 +564,139 @@ public final class SqlTemplate {
         return query;
     }
 
+    /**
+     * Unmodifiable map of attributes.
+     * @return unmodifiable map of attributes
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Unmodifiable list of optional and repeatable sections in order of its begin. Query of template
+     * contains each section exactly once.
+     * @return unmodifiable list of sections
+     */
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Variant of query for specified values: {@link Section.Kind#OPTIONAL} section is rendered when its
+     * value is not null and not {@link Boolean#FALSE}, {@link Section.Kind#REPEAT} section is rendered
+     * as many times as size of its value (collection, array or number), null value is zero,
+     * {@link Section.Kind#EXPAND} parameter is rendered for size of its list rounded up to power of two.
+     * @param values values by names of sections
+     * @return cached variant
+     * @throws IllegalArgumentException when value of repeatable section has unsupported type or too large
+     */
+    public Variant getVariant(Map<String, ?> values) {
+        if(program == null) {
+            return fullVariant();
+        }
+        return program.get(program.key(values));
+    }
+
+    /**
+     * Variant of query for state of sections, it does not allocate when variant is cached already.
+     * @see #getVariant(Map)
+     * @param state for each section in order of {@link #getSections()}: count of repetitions,
+     *              or non-zero for rendered optional section
+     * @return cached variant
+     * @throws IllegalArgumentException when count of state differs from count of sections or is out of range
+     */
+    public Variant getVariant(int... state) {
+        if(program == null) {
+            if(state.length != 0) {
+                throw new IllegalArgumentException("Template '" + name + "' has no sections, but state has " + state.length);
+            }
+            return fullVariant();
+        }
+        return program.get(program.key(state));
+    }
+
+    private Variant fullVariant() {
+        Variant v = variant;
+        if(v == null) {
+            // concurrent threads may create it twice, query string is same
+            int[] scopes = new int[params.size()];
+            Arrays.fill(scopes, -1);
+            v = new Variant(query, params, sections, scopes, new int[params.size()]);
+            variant = v;
+        }
+        return v;
+    }
+
+    /**
+     * Distinct names of parameters in order of first appearance.
+     * @return unmodifiable set of names
+     */
+    public Set<String> getParamNames() {
+        return positionsIndex().keySet();
+    }
+
+    /**
+     * JDBC positions (1-based) of parameter with specified name, it allow to bind value of
+     * repeated parameter once to all its positions. Index is built at first call and then cached.
+     * @param name name of parameter
+     * @return copy of positions in ascending order, or empty array when template has not parameter
+     */
+    public int[] getParamPositions(String name) {
+        return paramPositions(name).clone();
+    }
+
+    /**
+     * Same as {@link #getParamPositions(String)} but returns shared array, which must not be modified.
+     */
+    int[] paramPositions(String name) {
+        int[] positions = positionsIndex().get(name);
+        return positions == null? NO_POSITIONS : positions;
+    }
+
+    private Map<String, int[]> positionsIndex() {
+        Map<String, int[]> map = paramPositions;
+        if(map == null) {
+            Map<String, int[]> tmp = new LinkedHashMap<>();
+            for(int i = 0; i < params.size(); i++) {
+                String name = params.get(i).getName();
+                int[] positions = tmp.get(name);
+                if(positions == null) {
+                    positions = new int[1];
+                } else {
+                    positions = Arrays.copyOf(positions, positions.length + 1);
+                }
+                positions[positions.length - 1] = i + 1;
+                tmp.put(name, positions);
+            }
+            map = Collections.unmodifiableMap(tmp);
+            paramPositions = map;
+        }
+        return map;
+    }
+
+    /**
+     * Plan of binding parameters to JDBC statement. It is built at first call and then cached.
+     * Template with sections has not plan, its values are bound by {@link Variant#bind}.
+     * @return binding plan
+     * @throws IllegalStateException when parameter has unknown type or template has sections
+     */
+    public BindingPlan getBindingPlan() {
+        BindingPlan plan = bindingPlan;
+        if(plan == null) {
+            // concurrent threads may build same plan twice, it is harmless
+            plan = BindingPlan.of(this);
+            bindingPlan = plan;
+        }
+        return plan;
+    }
+
     @Override
     public String toString() {
         return "SqlTemplate{" +
                 "name=" + name +
                 ", fields=" + fields +
                 ", params=" + params +
+                ", sections=" + sections +
                 ", attributes=" + attributes +
                 ", query=" + query +
                 '}';
@@ -279,6 +708,7 @@ public final class SqlTemplate {
         hash = 53 * hash + Objects.hashCode(this.name);
         hash = 53 * hash + Objects.hashCode(this.fields);
         hash = 53 * hash + Objects.hashCode(this.params);
+        hash = 53 * hash + Objects.hashCode(this.sections);
         hash = 53 * hash + Objects.hashCode(this.attributes);
         hash = 53 * hash + Objects.hashCode(this.query);
         return hash;
@@ -308,6 +738,9 @@ public final class SqlTemplate {
         if(!Objects.equals(this.params, other.params)) {
             return false;
         }
+        if(!Objects.equals(this.sections, other.sections)) {
+            return false;
+        }
         if(!Objects.equals(this.attributes, other.attributes)) {
             return false;
         }
@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Connection scoped cache of prepared statements. Statements are keyed by identity of template or
+ * variant, therefore lookup neither hashes nor compares query text. Least recently used statement
+ * is closed when cache exceeds its capacity.
+ * <p/>
+ * Cached statements are owned by cache, caller must not close them, and must bind all parameters
+ * before each execution, because values from previous use are not cleared. Cache is not thread
+ * safe, like connection which it uses.
+ * @author wayerr
+ */
+public final class StatementCache implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final class Entry {
+        private final Object key;
+        private final PreparedStatement statement;
+        private Entry prev;
+        private Entry next;
+
+        Entry(Object key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    private final Connection connection;
+    private final int capacity;
+    private final Map<Object, Entry> entries;
+    // sentinel of circular list, head.next is most recently used entry
+    private final Entry head = new Entry(null, null);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Cache of statements.
+     * @param connection connection
+     * @param capacity max count of open statements
+     * @throws IllegalArgumentException when capacity is not positive
+     */
+    public StatementCache(Connection connection, int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, but is " + capacity);
+        }
+        this.connection = Objects.requireNonNull(connection, "connection is null");
+        this.capacity = capacity;
+        this.entries = new IdentityHashMap<>(capacity + 1);
+        head.prev = head;
+        head.next = head;
+    }
+
+    /**
+     * Statement of template query.
+     * @param template template
+     * @return cached statement, which must not be closed
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(SqlTemplate template) throws SQLException {
+        return prepare(template, template.getQuery());
+    }
+
+    /**
+     * Statement of variant query. Variants are cached by template, so same state of sections gives same statement.
+     * @param variant variant
+     * @return cached statement, which must not be closed
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(SqlTemplate.Variant variant) throws SQLException {
+        return prepare(variant, variant.getQuery());
+    }
+
+    private PreparedStatement prepare(Object key, String query) throws SQLException {
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            hits++;
+            if(head.next != entry) {
+                unlink(entry);
+                link(entry);
+            }
+            return entry.statement;
+        }
+        misses++;
+        entry = new Entry(key, connection.prepareStatement(query));
+        entries.put(key, entry);
+        link(entry);
+        if(entries.size() > capacity) {
+            Entry eldest = head.prev;
+            unlink(eldest);
+            entries.remove(eldest.key);
+            evictions++;
+            eldest.statement.close();
+        }
+        return entry.statement;
+    }
+
+    private void link(Entry entry) {
+        entry.prev = head;
+        entry.next = head.next;
+        head.next.prev = entry;
+        head.next = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Count of cached statements.
+     * @return count of statements
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Close all cached statements, cache stays usable.
+     * @throws SQLException first error of closing, others are suppressed
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException error = null;
+        for(Entry entry = head.next; entry != head; entry = entry.next) {
+            try {
+                entry.statement.close();
+            } catch(SQLException e) {
+                if(error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        entries.clear();
+        head.prev = head;
+        head.next = head;
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache{" +
+                "size=" + entries.size() +
+                ", capacity=" + capacity +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
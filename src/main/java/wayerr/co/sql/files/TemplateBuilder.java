@@ -29,12 +29,15 @@ public class TemplateBuilder {
     private static final char TEMPLATE = '#';
     private static final char FIELD = '@';
     private static final char PARAM = '$';
+    private static final char OPTIONAL = '?';
+    private static final char REPEAT = '+';
+    private static final String SECTION_END = "}";
 
     private class ContextImpl implements TemplateParser.Context {
 
-        private final String token;
+        private final CharSequence token;
 
-        public ContextImpl(String token) {
+        public ContextImpl(CharSequence token) {
             this.token = token;
         }
 
@@ -44,9 +47,14 @@ public class TemplateBuilder {
         }
 
         @Override
-        public String getString() {
+        public CharSequence getChars() {
             // we remove first character #, @ or $
-            return token.substring(1);
+            return token.subSequence(1, token.length());
+        }
+
+        @Override
+        public String getString() {
+            return getChars().toString();
         }
     }
 
@@ -55,14 +63,32 @@ public class TemplateBuilder {
     }
 
     enum MacroType {
-        TEMPLATE, FIELD, PARAM
+        TEMPLATE, FIELD, PARAM, OPTIONAL, REPEAT, SECTION_END
+    }
+
+    /**
+     * Section which is not closed yet.
+     */
+    private static final class OpenSection {
+        private final int index;
+        private final int queryBegin;
+        private final int paramBegin;
+
+        OpenSection(int index, int queryBegin, int paramBegin) {
+            this.index = index;
+            this.queryBegin = queryBegin;
+            this.paramBegin = paramBegin;
+        }
     }
 
     private final SqlTemplate.Builder builder = new SqlTemplate.Builder();
-    private final List<String> queryChunks = new ArrayList<>();
+    /**
+     * Query is assembled here directly from token views, string is created only once at build.
+     */
     private final StringBuilder queryBuilder = new StringBuilder();
     private final TemplateParser templateParser;
     private final Consumer<SqlTemplate> consumer;
+    private final Interner interner;
     /**
      * This flag allow us to detect when queryBuilder is modifiead after
      * 'accept(' begin. This is need for replacing unprocesed comments with spaces
@@ -70,12 +96,23 @@ public class TemplateBuilder {
     private boolean replaced;
     private MacroType lastMacro;
     private TokenFilter tokenFilter;
+    private final List<OpenSection> openSections = new ArrayList<>();
 
     TemplateBuilder(TemplateParser templateParser, Consumer<SqlTemplate> consumer) {
+        this(templateParser, consumer, null);
+    }
+
+    /**
+     * @param templateParser parser of macros
+     * @param consumer consumer of templates
+     * @param interner pool of canonical instances or null
+     */
+    TemplateBuilder(TemplateParser templateParser, Consumer<SqlTemplate> consumer, Interner interner) {
         Objects.requireNonNull(templateParser, "templateParser is null");
         Objects.requireNonNull(consumer, "template consumer is null");
         this.templateParser = templateParser;
         this.consumer = consumer;
+        this.interner = interner;
     }
 
     public void accept(Token token) {
@@ -88,22 +125,31 @@ public class TemplateBuilder {
         MacroType mt = null;
         boolean reconstruct = true;
         if(!type.isCode()) {
-            String content = token.getContent();
+            CharSequence content = token.getContentChars();
             mt = lastMacro = detectMacro(content);
+            SqlTemplate.Section section = null;
+            if(mt == MacroType.OPTIONAL || mt == MacroType.REPEAT) {
+                section = templateParser.parseSection(new ContextImpl(content),
+                  mt == MacroType.OPTIONAL? SqlTemplate.Section.Kind.OPTIONAL : SqlTemplate.Section.Kind.REPEAT);
+                if(section == null) {
+                    // parser does not support sections, so it is usual comment
+                    mt = lastMacro = null;
+                }
+            }
             if(mt != null) {
                 reconstruct = false;
                 replaced = false;
-                processMacro(content, mt);
+                processMacro(content, mt, section);
                 if(!replaced) {
                     // do default replacing of macro comment
                     //comment may act as space character, in cases like 'from/*comment* /tableName'
                     // therefore we must add extra space instead of 'macro' comments
-                    queryChunks.add(" ");
+                    queryBuilder.append(' ');
                 }
             }
         } else if(type == TokenType.NAMED_PARAM) {
             reconstruct = false;
-            builder.addParam(new SqlTemplate.Param(token.getContent(), null, null, SqlTemplate.Direction.IN));
+            builder.addParam(new SqlTemplate.Param(token.getContentChars().toString(), null, null, SqlTemplate.Direction.IN));
             replaceWith("?");
         }
         if(!inBuild()) {
@@ -113,7 +159,7 @@ public class TemplateBuilder {
         if(reconstruct) {
             // we reconstruct code and
             // non macro comments, because it may act as hints for some sql engines
-            queryChunks.add(token.getRaw());
+            queryBuilder.append(token.getRawChars());
         }
         if(lastMacro != null && !type.isCode()) {
             // when comment is macro we must remove full comment include open and closing parts
@@ -139,12 +185,14 @@ public class TemplateBuilder {
     }
 
     private void replaceWith(String replacer) {
-        queryChunks.add(replacer);
+        queryBuilder.append(replacer);
         replaced = true;
     }
 
-    private void processParam(String token) {
+    private void processParam(CharSequence token) {
         final SqlTemplate.Param param = templateParser.parseParam(new ContextImpl(token));
+        final int queryBegin = queryBuilder.length();
+        final int paramBegin = builder.getParams().size();
         builder.addParam(param);
         // we also must add 'replacer()' concept which will got param and
         // had replaced it with ':paramName' for example
@@ -152,14 +200,19 @@ public class TemplateBuilder {
         //note, that we must replace without additional spaces, because code may use parameter in some expressions
         // which is sensitivity to spaces
         replaceWith("?");
+        if(inBuild() && "true".equals(param.getAttributes().get("expand"))) {
+            // sections are ordered by begin, so expanded parameter is always last of them
+            builder.getSections().add(new SqlTemplate.Section(param.getName(), SqlTemplate.Section.Kind.EXPAND, ",",
+                    null, queryBegin, queryBuilder.length(), paramBegin, builder.getParams().size()));
+        }
     }
 
-    private void processField(String token) {
+    private void processField(CharSequence token) {
         final SqlTemplate.Field field = templateParser.parseField(new ContextImpl(token));
         builder.addField(field);
     }
 
-    private void processTemplate(String token) {
+    private void processTemplate(CharSequence token) {
         if(inBuild()) {
             buildTemplate();
         }
@@ -168,8 +221,33 @@ public class TemplateBuilder {
         builder.setName(name);
     }
 
-    private MacroType detectMacro(String str) {
-        if(str.isEmpty()) {
+    /**
+     * Parse name of template from header without starting build of template.
+     * @param content content of header token
+     * @return name of template
+     */
+    String parseTemplateName(CharSequence content) {
+        final String name = templateParser.parseTemplate(new ContextImpl(content));
+        Objects.requireNonNull(name, templateParser + " return null name from " + content);
+        builder.clear();
+        return name;
+    }
+
+    /**
+     * Check that token is a template header, so the new template begins from it.
+     * @param token token
+     * @return true for comment with template name
+     */
+    static boolean isTemplateHeader(Token token) {
+        if(token.getType().isCode()) {
+            return false;
+        }
+        CharSequence content = token.getContentChars();
+        return content.length() > 0 && content.charAt(0) == TEMPLATE;
+    }
+
+    private MacroType detectMacro(CharSequence str) {
+        if(str.length() == 0) {
             return null;
         }
         switch(str.charAt(0)) {
@@ -179,10 +257,30 @@ public class TemplateBuilder {
                 return MacroType.PARAM;
             case TEMPLATE:
                 return MacroType.TEMPLATE;
+            case OPTIONAL:
+                return isSectionHeader(str)? MacroType.OPTIONAL : null;
+            case REPEAT:
+                return isSectionHeader(str)? MacroType.REPEAT : null;
+        }
+        // without open sections it is usual comment
+        if(!openSections.isEmpty() && Utils.trimmedEquals(str, SECTION_END)) {
+            return MacroType.SECTION_END;
         }
         return null;
     }
-    private void processMacro(String token, MacroType macroType) {
+    /**
+     * Markers of sections are also used by usual comments, like optimizer hints <code>/*+ INDEX(t i) *&#47;</code>,
+     * therefore comment is a section only when name follows marker and header ends with brace.
+     */
+    private static boolean isSectionHeader(CharSequence str) {
+        int end = str.length();
+        while(end > 1 && str.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end > 2 && str.charAt(1) > ' ' && str.charAt(end - 1) == '{';
+    }
+
+    private void processMacro(CharSequence token, MacroType macroType, SqlTemplate.Section section) {
         switch(macroType) {
             case FIELD:
                 processField(token);
@@ -193,7 +291,33 @@ public class TemplateBuilder {
             case TEMPLATE:
                 processTemplate(token);
                 break;
+            case OPTIONAL:
+            case REPEAT:
+                openSection(section);
+                break;
+            case SECTION_END:
+                closeSection();
+                break;
+        }
+    }
+
+    private void openSection(SqlTemplate.Section section) {
+        if(!inBuild()) {
+            throw new IllegalStateException("Section '" + section.getName() + "' is outside of template");
         }
+        // spaces around section replace macro comments, section does not include them
+        replaceWith(" ");
+        List<SqlTemplate.Section> sections = builder.getSections();
+        openSections.add(new OpenSection(sections.size(), queryBuilder.length(), builder.getParams().size()));
+        sections.add(section);
+    }
+
+    private void closeSection() {
+        OpenSection open = openSections.remove(openSections.size() - 1);
+        List<SqlTemplate.Section> sections = builder.getSections();
+        sections.set(open.index, sections.get(open.index).withRanges(open.queryBegin, queryBuilder.length(),
+          open.paramBegin, builder.getParams().size()));
+        replaceWith(" ");
     }
 
     void close() {
@@ -207,16 +331,39 @@ public class TemplateBuilder {
             }
             return;
         }
-        queryBuilder.setLength(0);
-        queryChunks.forEach(queryBuilder::append);
-        builder.query(queryBuilder.toString().trim());
-        SqlTemplate st = builder.build();
+        if(!openSections.isEmpty()) {
+            String section = builder.getSections().get(openSections.get(openSections.size() - 1).index).getName();
+            openSections.clear();
+            throw new IllegalStateException("Section '" + section + "' is not closed in template '" + builder.getName() + "'");
+        }
+        String query = Utils.trimToString(queryBuilder);
+        builder.query(query);
+        List<SqlTemplate.Section> sections = builder.getSections();
+        if(!sections.isEmpty()) {
+            // ranges of sections are moved by trimming
+            int lead = 0;
+            while(lead < queryBuilder.length() && queryBuilder.charAt(lead) <= ' ') {
+                lead++;
+            }
+            for(int i = 0; i < sections.size(); i++) {
+                SqlTemplate.Section section = sections.get(i);
+                sections.set(i, section.withRanges(
+                  clamp(section.getQueryBegin() - lead, query.length()),
+                  clamp(section.getQueryEnd() - lead, query.length()),
+                  section.getParamBegin(), section.getParamEnd()));
+            }
+        }
+        SqlTemplate st = interner != null? interner.build(builder) : builder.build();
         //clear immediate after build
         builder.clear();
-        queryChunks.clear();
+        queryBuilder.setLength(0);
         consumer.accept(st);
     }
 
+    private static int clamp(int offset, int length) {
+        return Math.max(0, Math.min(offset, length));
+    }
+
     public TokenFilter getTokenFilter() {
         return tokenFilter;
     }
@@ -0,0 +1,457 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary cache of parsed templates, it allow to skip parsing of sql files at startup.
+ * Cache is produced at build time by {@link #main(String[])} (see 'precompile-templates' profile
+ * in pom.xml), or by {@link #compile(Path, String, Path, TemplateLoader)}.
+ * <p/>
+ * Cache contains table of unique strings and templates of each source file with CRC32 checksum of file.
+ * At loading with source directory the stale entries is detected by checksum, and changed
+ * files are parsed again.
+ * <p/>
+ * Format, all numbers except checksum are unsigned varints, string reference is index in table
+ * plus one, zero is null:
+ * <pre>
+ * 'SQLC' version
+ * stringCount (byteLength utf8Bytes)*
+ * sourceCount (name crc32:long templateCount template*)*
+ * template: name query attributes fieldCount (name type attributes)* paramCount (name type direction attributes)*
+ *   sectionCount (name kind separator attributes queryBegin queryEnd paramBegin paramEnd)*
+ * attributes: count (key value)*
+ * </pre>
+ * @author wayerr
+ */
+public final class TemplateCache {
+
+    private static final int MAGIC = 0x53514C43;
+    private static final int VERSION = 2;
+
+    private TemplateCache() {
+    }
+
+    /**
+     * Parse files from source directory and write its templates to cache file.
+     * @param sourceDir directory with sql files
+     * @param glob glob of files which is relative to directory
+     * @param cacheFile cache file
+     * @param loader loader which is used for parsing
+     * @throws IOException
+     */
+    public static void compile(Path sourceDir, String glob, Path cacheFile, TemplateLoader loader) throws IOException {
+        List<Path> paths = TemplateLoader.findFiles(sourceDir, glob);
+        Collections.sort(paths);
+        List<TemplateLoader.Source> sources = new ArrayList<>(paths.size());
+        for(Path path : paths) {
+            sources.add(TemplateLoader.fileSource(path));
+        }
+        List<List<SqlTemplate>> results = loader.parseAll(sources);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for(int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            entries.put(sourceName(sourceDir, path), new Entry(checksum(path), results.get(i)));
+        }
+        Path parent = cacheFile.toAbsolutePath().getParent();
+        if(parent != null) {
+            Files.createDirectories(parent);
+        }
+        try(OutputStream os = Files.newOutputStream(cacheFile)) {
+            os.write(write(entries));
+        }
+    }
+
+    /**
+     * Load all templates from cache without checking of sources.
+     * @param cacheFile cache file
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     */
+    public static Map<String, SqlTemplate> load(Path cacheFile) throws IOException {
+        return load(cacheFile, null, null, null);
+    }
+
+    /**
+     * Load templates from cache and sources. Source file which is absent in cache or has different checksum
+     * is parsed, cached entry without source file is dropped. When source directory is null, all cached entries
+     * are used as is.
+     * @param cacheFile cache file, it may not exist
+     * @param sourceDir directory with sql files, or null
+     * @param glob glob of files which is relative to directory
+     * @param loader loader which is used for parsing, {@link TemplateLoader#getDefault()} when null
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public static Map<String, SqlTemplate> load(Path cacheFile, Path sourceDir, String glob, TemplateLoader loader) throws IOException {
+        Map<String, Entry> entries = Files.exists(cacheFile)? read(map(cacheFile)) : new LinkedHashMap<>();
+        if(sourceDir != null) {
+            List<Path> stale = new ArrayList<>();
+            List<TemplateLoader.Source> sources = new ArrayList<>();
+            Set<String> found = new HashSet<>();
+            for(Path path : TemplateLoader.findFiles(sourceDir, glob)) {
+                String name = sourceName(sourceDir, path);
+                found.add(name);
+                Entry entry = entries.get(name);
+                if(entry == null || entry.checksum != checksum(path)) {
+                    stale.add(path);
+                    sources.add(TemplateLoader.fileSource(path));
+                }
+            }
+            // templates of deleted files must not come back
+            entries.keySet().retainAll(found);
+            List<List<SqlTemplate>> results = (loader == null? TemplateLoader.getDefault() : loader).parseAll(sources);
+            for(int i = 0; i < stale.size(); i++) {
+                Path path = stale.get(i);
+                entries.put(sourceName(sourceDir, path), new Entry(checksum(path), results.get(i)));
+            }
+        }
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        Map<String, SqlTemplate> map = new HashMap<>();
+        Map<String, String> locations = new HashMap<>();
+        for(String source : names) {
+            for(SqlTemplate template : entries.get(source).templates) {
+                String name = template.getName();
+                String prev = locations.putIfAbsent(name, source);
+                if(prev != null) {
+                    throw new IllegalStateException("Duplicate template '" + name + "' in " + prev + " and " + source);
+                }
+                map.put(name, template);
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String sourceName(Path dir, Path file) {
+        // same name on any platform
+        StringBuilder sb = new StringBuilder();
+        for(Path part : dir.relativize(file)) {
+            if(sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(map(file));
+        return crc.getValue();
+    }
+
+    /**
+     * Cached templates of one source file.
+     */
+    static final class Entry {
+        private final long checksum;
+        private final List<SqlTemplate> templates;
+
+        Entry(long checksum, List<SqlTemplate> templates) {
+            this.checksum = checksum;
+            this.templates = templates;
+        }
+
+        List<SqlTemplate> getTemplates() {
+            return templates;
+        }
+    }
+
+    static byte[] write(Map<String, Entry> entries) {
+        // first pass collect strings
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for(Map.Entry<String, Entry> e : entries.entrySet()) {
+            addString(strings, e.getKey());
+            for(SqlTemplate template : e.getValue().templates) {
+                addString(strings, template.getName());
+                addString(strings, template.getQuery());
+                addStrings(strings, template.getAttributes());
+                for(SqlTemplate.Field field : template.getFields()) {
+                    addString(strings, field.getName());
+                    addString(strings, field.getType());
+                    addStrings(strings, field.getAttributes());
+                }
+                for(SqlTemplate.Param param : template.getParams()) {
+                    addString(strings, param.getName());
+                    addString(strings, param.getType());
+                    addStrings(strings, param.getAttributes());
+                }
+                for(SqlTemplate.Section section : template.getSections()) {
+                    addString(strings, section.getName());
+                    addString(strings, section.getSeparator());
+                    addStrings(strings, section.getAttributes());
+                }
+            }
+        }
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(strings.size());
+        for(String str : strings.keySet()) {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeVarInt(entries.size());
+        for(Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            out.writeVarInt(ref(strings, e.getKey()));
+            out.writeLong(entry.checksum);
+            out.writeVarInt(entry.templates.size());
+            for(SqlTemplate template : entry.templates) {
+                out.writeVarInt(ref(strings, template.getName()));
+                out.writeVarInt(ref(strings, template.getQuery()));
+                writeAttributes(out, strings, template.getAttributes());
+                out.writeVarInt(template.getFields().size());
+                for(SqlTemplate.Field field : template.getFields()) {
+                    out.writeVarInt(ref(strings, field.getName()));
+                    out.writeVarInt(ref(strings, field.getType()));
+                    writeAttributes(out, strings, field.getAttributes());
+                }
+                out.writeVarInt(template.getParams().size());
+                for(SqlTemplate.Param param : template.getParams()) {
+                    out.writeVarInt(ref(strings, param.getName()));
+                    out.writeVarInt(ref(strings, param.getType()));
+                    out.writeVarInt(param.getDirection().ordinal());
+                    writeAttributes(out, strings, param.getAttributes());
+                }
+                out.writeVarInt(template.getSections().size());
+                for(SqlTemplate.Section section : template.getSections()) {
+                    out.writeVarInt(ref(strings, section.getName()));
+                    out.writeVarInt(section.getKind().ordinal());
+                    out.writeVarInt(ref(strings, section.getSeparator()));
+                    writeAttributes(out, strings, section.getAttributes());
+                    out.writeVarInt(section.getQueryBegin());
+                    out.writeVarInt(section.getQueryEnd());
+                    out.writeVarInt(section.getParamBegin());
+                    out.writeVarInt(section.getParamEnd());
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void addString(Map<String, Integer> strings, String str) {
+        if(str != null) {
+            strings.putIfAbsent(str, strings.size());
+        }
+    }
+
+    private static void addStrings(Map<String, Integer> strings, Map<String, String> attrs) {
+        for(Map.Entry<String, String> e : attrs.entrySet()) {
+            addString(strings, e.getKey());
+            addString(strings, e.getValue());
+        }
+    }
+
+    private static int ref(Map<String, Integer> strings, String str) {
+        return str == null? 0 : strings.get(str) + 1;
+    }
+
+    private static void writeAttributes(Output out, Map<String, Integer> strings, Map<String, String> attrs) {
+        out.writeVarInt(attrs.size());
+        for(Map.Entry<String, String> e : attrs.entrySet()) {
+            out.writeVarInt(ref(strings, e.getKey()));
+            out.writeVarInt(ref(strings, e.getValue()));
+        }
+    }
+
+    /**
+     * Read cache from buffer in one pass.
+     * @param buf buffer
+     * @return entries by source name, in order of cache
+     * @throws IOException when cache has wrong format
+     */
+    static Map<String, Entry> read(ByteBuffer buf) throws IOException {
+        try {
+            if(buf.getInt() != MAGIC) {
+                throw new IOException("Invalid cache: wrong magic number");
+            }
+            int version = readVarInt(buf);
+            if(version != VERSION) {
+                throw new IOException("Unsupported cache version: " + version);
+            }
+            String[] strings = new String[readVarInt(buf)];
+            byte[] bytes = new byte[64];
+            for(int i = 0; i < strings.length; i++) {
+                int len = readVarInt(buf);
+                if(bytes.length < len) {
+                    bytes = new byte[Math.max(len, bytes.length * 2)];
+                }
+                buf.get(bytes, 0, len);
+                strings[i] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+            }
+            SqlTemplate.Direction[] directions = SqlTemplate.Direction.values();
+            SqlTemplate.Section.Kind[] kinds = SqlTemplate.Section.Kind.values();
+            int sourceCount = readVarInt(buf);
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for(int s = 0; s < sourceCount; s++) {
+                String source = readString(buf, strings);
+                long checksum = buf.getLong();
+                int templateCount = readVarInt(buf);
+                List<SqlTemplate> templates = new ArrayList<>(templateCount);
+                for(int t = 0; t < templateCount; t++) {
+                    String name = readString(buf, strings);
+                    String query = readString(buf, strings);
+                    Map<String, String> attrs = readAttributes(buf, strings);
+                    int fieldCount = readVarInt(buf);
+                    List<SqlTemplate.Field> fields = new ArrayList<>(fieldCount);
+                    for(int i = 0; i < fieldCount; i++) {
+                        String fieldName = readString(buf, strings);
+                        String type = readString(buf, strings);
+                        fields.add(new SqlTemplate.Field(fieldName, type, readAttributes(buf, strings)));
+                    }
+                    int paramCount = readVarInt(buf);
+                    List<SqlTemplate.Param> params = new ArrayList<>(paramCount);
+                    for(int i = 0; i < paramCount; i++) {
+                        String paramName = readString(buf, strings);
+                        String type = readString(buf, strings);
+                        SqlTemplate.Direction direction = directions[readVarInt(buf)];
+                        params.add(new SqlTemplate.Param(paramName, type, readAttributes(buf, strings), direction));
+                    }
+                    int sectionCount = readVarInt(buf);
+                    List<SqlTemplate.Section> sections = new ArrayList<>(sectionCount);
+                    for(int i = 0; i < sectionCount; i++) {
+                        String sectionName = readString(buf, strings);
+                        SqlTemplate.Section.Kind kind = kinds[readVarInt(buf)];
+                        String separator = readString(buf, strings);
+                        Map<String, String> sectionAttrs = readAttributes(buf, strings);
+                        sections.add(new SqlTemplate.Section(sectionName, kind, separator, sectionAttrs,
+                          readVarInt(buf), readVarInt(buf), readVarInt(buf), readVarInt(buf)));
+                    }
+                    templates.add(new SqlTemplate(name, query, fields, params, sections, attrs));
+                }
+                entries.put(source, new Entry(checksum, templates));
+            }
+            return entries;
+        } catch(RuntimeException e) {
+            // BufferUnderflowException, IndexOutOfBoundsException and etc.
+            throw new IOException("Invalid cache: " + e, e);
+        }
+    }
+
+    private static String readString(ByteBuffer buf, String[] strings) {
+        int ref = readVarInt(buf);
+        return ref == 0? null : strings[ref - 1];
+    }
+
+    private static Map<String, String> readAttributes(ByteBuffer buf, String[] strings) {
+        int count = readVarInt(buf);
+        if(count == 0) {
+            return null;
+        }
+        Map<String, String> attrs = new HashMap<>();
+        for(int i = 0; i < count; i++) {
+            String key = readString(buf, strings);
+            attrs.put(key, readString(buf, strings));
+        }
+        return attrs;
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            int b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Too long varint");
+    }
+
+    /**
+     * Growable output buffer.
+     */
+    private static final class Output {
+        private byte[] buf = new byte[1024];
+        private int len;
+
+        private void ensure(int count) {
+            if(len + count > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(len + count, buf.length * 2));
+            }
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while((value & ~0x7F) != 0) {
+                buf[len++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[len++] = (byte)value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            for(int i = 3; i >= 0; i--) {
+                buf[len++] = (byte)(value >>> (i * 8));
+            }
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for(int i = 7; i >= 0; i--) {
+                buf[len++] = (byte)(value >>> (i * 8));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /**
+     * Build time entry point: {@code TemplateCache sourceDir cacheFile [glob]}.
+     * @param args arguments
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            throw new IllegalArgumentException("Usage: TemplateCache <sourceDir> <cacheFile> [glob]");
+        }
+        Path sourceDir = Paths.get(args[0]);
+        Path cacheFile = Paths.get(args[1]);
+        String glob = args.length > 2? args[2] : TemplateLoader.DEFAULT_GLOB;
+        compile(sourceDir, glob, cacheFile, TemplateLoader.getDefault());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Index of templates which is parsed on demand. At creation text is only scanned for template headers,
+ * then template is parsed from its range of text at first lookup and cached. First lookup of each
+ * name is thread-safe and parse template only once.
+ * <p/>
+ * Note that sample value should be closed inside its template. When pre-scan finds template header inside
+ * unclosed sample value or section, range of template depends on previous ones, therefore its source is
+ * parsed fully at creation of index, and lookups of this source return results of full parsing.
+ * @see SqlParser#index(java.io.Reader)
+ * @see TemplateLoader#index(java.nio.file.Path)
+ * @author wayerr
+ */
+public final class TemplateIndex {
+
+    /**
+     * Text of one source, it must not be changed while index is used.
+     */
+    static final class Source {
+        private final SqlParser parser;
+        private final Supplier<AbstractParserContext> contexts;
+        private final int length;
+        private final List<Entry> entries = new ArrayList<>();
+        private boolean reparsed;
+
+        Source(SqlParser parser, Supplier<AbstractParserContext> contexts, int length) {
+            this.parser = parser;
+            this.contexts = contexts;
+            this.length = length;
+        }
+
+        Entry addEntry(String name, int from, int to) {
+            Entry entry = new Entry(this, name, from, to);
+            entries.add(entry);
+            return entry;
+        }
+
+        /**
+         * Add entry which is already parsed.
+         */
+        Entry addEntry(SqlTemplate template) {
+            Entry entry = new Entry(this, template.getName(), 0, length);
+            entry.template = template;
+            entry.resolved = true;
+            return entry;
+        }
+
+        private synchronized void commit(Entry entry, SqlTemplate template) {
+            if(!entry.resolved) {
+                entry.template = template;
+                entry.resolved = true;
+            }
+        }
+
+        /**
+         * Parse whole text when range of template does not match pre-scan, it is possible only with
+         * template parser which uses other syntax of sample values. Already resolved entries are not changed.
+         */
+        private synchronized void reparse() {
+            if(reparsed) {
+                return;
+            }
+            Map<String, SqlTemplate> map = new HashMap<>();
+            for(SqlTemplate template : parser.parseRange(contexts.get(), 0, length, true)) {
+                map.put(template.getName(), template);
+            }
+            for(Entry entry : entries) {
+                if(!entry.resolved) {
+                    entry.template = map.get(entry.name);
+                    entry.resolved = true;
+                }
+            }
+            reparsed = true;
+        }
+    }
+
+    /**
+     * Range of one template in source.
+     */
+    static final class Entry {
+        private final Source source;
+        private final String name;
+        private final int from;
+        private final int to;
+        private volatile boolean resolved;
+        // it is written before 'resolved' therefore visible after read of it
+        private SqlTemplate template;
+
+        private Entry(Source source, String name, int from, int to) {
+            this.source = source;
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isResolved() {
+            return resolved;
+        }
+
+        SqlTemplate get() {
+            if(!resolved) {
+                synchronized(this) {
+                    if(!resolved) {
+                        parse();
+                    }
+                }
+            }
+            return template;
+        }
+
+        private void parse() {
+            List<SqlTemplate> templates = source.parser.parseRange(source.contexts.get(), from, to, to == source.length);
+            if(templates != null && templates.size() == 1 && name.equals(templates.get(0).getName())) {
+                source.commit(this, templates.get(0));
+            } else {
+                source.reparse();
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    TemplateIndex(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Get template by name, it is parsed at first call.
+     * @param name name of template
+     * @return template or null when index has not template with specified name
+     */
+    public SqlTemplate get(String name) {
+        Entry entry = entries.get(name);
+        return entry == null? null : entry.get();
+    }
+
+    /**
+     * Names of templates which is found by scanning.
+     * @return unmodifiable set of names
+     */
+    public Set<String> getNames() {
+        return entries.keySet();
+    }
+
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateIndex{" +
+                "names=" + entries.keySet() +
+                '}';
+    }
+}
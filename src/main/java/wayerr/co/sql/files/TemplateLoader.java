@@ -0,0 +1,426 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load templates from many files in parallel into single map. Files is parsed
+ * on executor, then results are merged in order of file locations, therefore
+ * duplicated names are always reported in same way.
+ * @author wayerr
+ */
+public class TemplateLoader {
+
+    /**
+     * Glob which is used when other is not specified, it match sql files in any subdirectory.
+     */
+    public static final String DEFAULT_GLOB = "**.sql";
+
+    public static class Builder {
+
+        private SqlParser parser;
+        private Executor executor;
+        private Charset charset = StandardCharsets.UTF_8;
+
+        public SqlParser getParser() {
+            return parser;
+        }
+
+        /**
+         * Parser of files, {@link SqlParser#getDefault()} when null.
+         * @param parser parser
+         * @return this
+         */
+        public Builder parser(SqlParser parser) {
+            setParser(parser);
+            return this;
+        }
+
+        public void setParser(SqlParser parser) {
+            this.parser = parser;
+        }
+
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Executor for parsing of files, {@link ForkJoinPool#commonPool()} when null.
+         * @param executor executor
+         * @return this
+         */
+        public Builder executor(Executor executor) {
+            setExecutor(executor);
+            return this;
+        }
+
+        public void setExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        public Charset getCharset() {
+            return charset;
+        }
+
+        public Builder charset(Charset charset) {
+            setCharset(charset);
+            return this;
+        }
+
+        public void setCharset(Charset charset) {
+            this.charset = charset;
+        }
+
+        public TemplateLoader build() {
+            return new TemplateLoader(this);
+        }
+    }
+
+    /**
+     * Source of templates.
+     */
+    interface Source {
+        /**
+         * Location of source, it used for ordering and in messages.
+         * @return location
+         */
+        String getLocation();
+
+        void parse(TemplateLoader loader, Consumer<SqlTemplate> consumer) throws IOException;
+    }
+
+    private static final class PathSource implements Source {
+        private final Path path;
+
+        PathSource(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public String getLocation() {
+            return path.toString();
+        }
+
+        @Override
+        public void parse(TemplateLoader loader, Consumer<SqlTemplate> consumer) throws IOException {
+            loader.parser.parse(path, loader.charset, consumer);
+        }
+    }
+
+    private static final class UrlSource implements Source {
+        private final URL url;
+
+        UrlSource(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getLocation() {
+            return url.toString();
+        }
+
+        @Override
+        public void parse(TemplateLoader loader, Consumer<SqlTemplate> consumer) throws IOException {
+            if(Utf8ParserContext.isSupported(loader.charset)) {
+                try(InputStream is = url.openStream()) {
+                    loader.parser.parse(is, consumer);
+                }
+                return;
+            }
+            try(Reader reader = new InputStreamReader(url.openStream(), loader.charset)) {
+                loader.parser.parse(reader, consumer);
+            }
+        }
+    }
+
+    private final SqlParser parser;
+    private final Executor executor;
+    private final Charset charset;
+
+    TemplateLoader(Builder builder) {
+        this.parser = builder.parser == null? SqlParser.getDefault() : builder.parser;
+        this.executor = builder.executor == null? ForkJoinPool.commonPool() : builder.executor;
+        this.charset = Objects.requireNonNull(builder.charset, "charset is null");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static TemplateLoader getDefault() {
+        return new Builder().build();
+    }
+
+    /**
+     * Load all sql files from directory and its subdirectories.
+     * @see #DEFAULT_GLOB
+     * @param dir directory
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public Map<String, SqlTemplate> load(Path dir) throws IOException {
+        return load(dir, DEFAULT_GLOB);
+    }
+
+    /**
+     * Load files from directory and its subdirectories.
+     * @param dir directory
+     * @param glob glob which is matched with path relative to directory, like '**.sql'
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public Map<String, SqlTemplate> load(Path dir, String glob) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        for(Path path : findFiles(dir, glob)) {
+            sources.add(new PathSource(path));
+        }
+        return loadSources(sources);
+    }
+
+    /**
+     * Scan all sql files from directory and its subdirectories for template headers, templates
+     * are parsed on first lookup.
+     * @see #DEFAULT_GLOB
+     * @see TemplateIndex
+     * @param dir directory
+     * @return index of templates
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public TemplateIndex index(Path dir) throws IOException {
+        return index(dir, DEFAULT_GLOB);
+    }
+
+    /**
+     * Scan files from directory and its subdirectories for template headers, templates
+     * are parsed on first lookup. Files must not be changed while index is used.
+     * @see TemplateIndex
+     * @param dir directory
+     * @param glob glob which is matched with path relative to directory, like '**.sql'
+     * @return index of templates
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public TemplateIndex index(Path dir, String glob) throws IOException {
+        List<Path> paths = findFiles(dir, glob);
+        Collections.sort(paths);
+        List<CompletableFuture<TemplateIndex>> futures = new ArrayList<>(paths.size());
+        for(Path path : paths) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return parser.index(path, charset);
+                } catch(IOException e) {
+                    throw new UncheckedIOException("Can not parse " + path, e);
+                }
+            }, executor));
+        }
+        List<TemplateIndex> indexes = Utils.joinAll(futures);
+        Map<String, TemplateIndex.Entry> entries = new HashMap<>();
+        Map<String, Path> locations = new HashMap<>();
+        for(int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            for(TemplateIndex.Entry entry : indexes.get(i).getEntries().values()) {
+                String name = entry.getName();
+                Path prev = locations.putIfAbsent(name, path);
+                if(prev != null) {
+                    throw new IllegalStateException("Duplicate template '" + name + "' in " + prev + " and " + path);
+                }
+                entries.put(name, entry);
+            }
+        }
+        return new TemplateIndex(entries);
+    }
+
+    /**
+     * Load all sql files which is placed under specified prefix of classpath. Directories
+     * and jar files of classpath are supported, note that jar must contain entry for prefix directory.
+     * @see #DEFAULT_GLOB
+     * @param classLoader class loader
+     * @param prefix prefix like 'com/example/sql'
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public Map<String, SqlTemplate> loadClasspath(ClassLoader classLoader, String prefix) throws IOException {
+        return loadClasspath(classLoader, prefix, DEFAULT_GLOB);
+    }
+
+    /**
+     * Load files which is placed under specified prefix of classpath.
+     * @param classLoader class loader
+     * @param prefix prefix like 'com/example/sql'
+     * @param glob glob which is matched with resource name relative to prefix
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found
+     */
+    public Map<String, SqlTemplate> loadClasspath(ClassLoader classLoader, String prefix, String glob) throws IOException {
+        return loadSources(findResources(classLoader, prefix, glob));
+    }
+
+    static List<Path> findFiles(Path dir, String glob) throws IOException {
+        PathMatcher matcher = dir.getFileSystem().getPathMatcher("glob:" + glob);
+        try(Stream<Path> stream = Files.walk(dir)) {
+            return stream.filter(Files::isRegularFile)
+              .filter((path) -> matcher.matches(dir.relativize(path)))
+              .collect(Collectors.toList());
+        }
+    }
+
+    private static List<Source> findResources(ClassLoader classLoader, String prefix, String glob) throws IOException {
+        String dirName = prefix.endsWith("/")? prefix.substring(0, prefix.length() - 1) : prefix;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<Source> sources = new ArrayList<>();
+        Enumeration<URL> roots = classLoader.getResources(dirName);
+        while(roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            if("file".equals(root.getProtocol())) {
+                try {
+                    for(Path path : findFiles(Paths.get(root.toURI()), glob)) {
+                        sources.add(new PathSource(path));
+                    }
+                } catch(URISyntaxException e) {
+                    throw new IOException("Invalid classpath location: " + root, e);
+                }
+                continue;
+            }
+            URLConnection connection = root.openConnection();
+            if(!(connection instanceof JarURLConnection)) {
+                throw new IOException("Unsupported classpath location: " + root);
+            }
+            JarURLConnection jarConnection = (JarURLConnection)connection;
+            // without caches connection opens own jar file, therefore it can be closed here
+            jarConnection.setUseCaches(false);
+            try(JarFile jar = jarConnection.getJarFile()) {
+                String entryPrefix = dirName + "/";
+                Enumeration<JarEntry> entries = jar.entries();
+                while(entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if(entry.isDirectory() || !name.startsWith(entryPrefix)) {
+                        continue;
+                    }
+                    if(matcher.matches(Paths.get(name.substring(entryPrefix.length())))) {
+                        sources.add(new UrlSource(new URL("jar:" + jarConnection.getJarFileURL() + "!/" + name)));
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Parse sources in parallel and merge result in order of its locations.
+     * @param sources sources
+     * @return immutable map with (template.name, template) entries.
+     * @throws IOException
+     */
+    Map<String, SqlTemplate> loadSources(Collection<? extends Source> sources) throws IOException {
+        List<Source> sorted = new ArrayList<>(sources);
+        sorted.sort(Comparator.comparing(Source::getLocation));
+        List<List<SqlTemplate>> results = parseAll(sorted);
+        Map<String, SqlTemplate> map = new HashMap<>();
+        Map<String, String> locations = new HashMap<>();
+        for(int i = 0; i < sorted.size(); i++) {
+            String location = sorted.get(i).getLocation();
+            List<SqlTemplate> templates = results.get(i);
+            for(int j = 0; j < templates.size(); j++) {
+                SqlTemplate template = templates.get(j);
+                String name = template.getName();
+                String prev = locations.putIfAbsent(name, location);
+                if(prev == null) {
+                    map.put(name, template);
+                    continue;
+                }
+                if(!prev.equals(location)) {
+                    throw new IllegalStateException("Duplicate template '" + name + "' in " + prev + " and " + location);
+                }
+                // both are in same source, so they are distinguished by its positions
+                int first = 0;
+                while(!Objects.equals(name, templates.get(first).getName())) {
+                    first++;
+                }
+                throw new IllegalStateException("Duplicate template '" + name + "' in " + location +
+                  " at templates #" + (first + 1) + " and #" + (j + 1));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Parse sources in parallel.
+     * @param sources sources
+     * @return list of templates for each source, in same order
+     * @throws IOException
+     */
+    List<List<SqlTemplate>> parseAll(List<? extends Source> sources) throws IOException {
+        List<CompletableFuture<List<SqlTemplate>>> futures = new ArrayList<>(sources.size());
+        for(Source source : sources) {
+            futures.add(CompletableFuture.supplyAsync(() -> parseSource(source), executor));
+        }
+        return Utils.joinAll(futures);
+    }
+
+    static Source fileSource(Path path) {
+        return new PathSource(path);
+    }
+
+    /**
+     * Parse single file on current thread.
+     * @param path file
+     * @return templates in order of file
+     * @throws IOException
+     */
+    List<SqlTemplate> parseFile(Path path) throws IOException {
+        List<SqlTemplate> list = new ArrayList<>();
+        parser.parse(path, charset, list::add);
+        return list;
+    }
+
+    List<SqlTemplate> parseSource(Source source) {
+        List<SqlTemplate> list = new ArrayList<>();
+        try {
+            source.parse(this, list::add);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Can not parse " + source.getLocation(), e);
+        }
+        return list;
+    }
+}
@@ -18,6 +18,7 @@ package wayerr.co.sql.files;
 
 import wayerr.co.sql.files.SqlTemplate.Field;
 import wayerr.co.sql.files.SqlTemplate.Param;
+import wayerr.co.sql.files.SqlTemplate.Section;
 
 /**
  * Strategy for parsing of template parts.
@@ -27,7 +28,17 @@ import wayerr.co.sql.files.SqlTemplate.Param;
 public interface TemplateParser {
     interface Context {
         TemplateBuilder getTemplateBuilder();
+
         String getString();
+
+        /**
+         * Same as {@link #getString()} but without copying. It may be a view over parser buffer,
+         * therefore it valid only while call of parser.
+         * @return content of macro without its marker symbol
+         */
+        default CharSequence getChars() {
+            return getString();
+        }
     }
     Field parseField(Context ctx);
     Param parseParam(Context ctx);
@@ -37,4 +48,15 @@ public interface TemplateParser {
      * @return name of template
      */
     String parseTemplate(Context ctx);
+
+    /**
+     * Parse header of section, like <code>?name {</code> or <code>+name sep=, {</code>. Ranges of
+     * returned section are ignored, they are defined by {@link TemplateBuilder}.
+     * @param ctx context
+     * @param kind kind of section, it is defined by marker symbol
+     * @return section, or null when parser does not support sections, then comment remains usual comment
+     */
+    default Section parseSection(Context ctx, Section.Kind kind) {
+        return null;
+    }
 }
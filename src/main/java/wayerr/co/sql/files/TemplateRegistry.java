@@ -0,0 +1,425 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Registry of templates from directories, which can reload changed files without restart.
+ * Templates are kept in concurrent map, change of file replaces only templates of this file,
+ * therefore lookups never wait and change does not copy templates of other files. Template which
+ * remains in changed file is replaced in place, so it is never missed by lookup.
+ * Start watching of directories by {@link #start()}, or call {@link #refresh(Path)} manually.
+ * @author wayerr
+ */
+public class TemplateRegistry implements Closeable {
+
+    public static class Builder {
+        private TemplateLoader loader;
+        private final List<Path> directories = new ArrayList<>();
+        private String glob = TemplateLoader.DEFAULT_GLOB;
+        private Consumer<? super Exception> errorHandler;
+
+        public TemplateLoader getLoader() {
+            return loader;
+        }
+
+        /**
+         * Loader which is used for parsing, {@link TemplateLoader#getDefault()} when null.
+         * @param loader loader
+         * @return this
+         */
+        public Builder loader(TemplateLoader loader) {
+            setLoader(loader);
+            return this;
+        }
+
+        public void setLoader(TemplateLoader loader) {
+            this.loader = loader;
+        }
+
+        public List<Path> getDirectories() {
+            return directories;
+        }
+
+        public Builder directory(Path directory) {
+            this.directories.add(directory);
+            return this;
+        }
+
+        public String getGlob() {
+            return glob;
+        }
+
+        /**
+         * Glob for files in directories, it matched with path relative to directory.
+         * @param glob glob
+         * @return this
+         */
+        public Builder glob(String glob) {
+            setGlob(glob);
+            return this;
+        }
+
+        public void setGlob(String glob) {
+            this.glob = glob;
+        }
+
+        public Consumer<? super Exception> getErrorHandler() {
+            return errorHandler;
+        }
+
+        /**
+         * Handler of errors which is happened at reloading in background. By default errors are passed
+         * to uncaught exception handler of watching thread.
+         * @param errorHandler handler
+         * @return this
+         */
+        public Builder errorHandler(Consumer<? super Exception> errorHandler) {
+            setErrorHandler(errorHandler);
+            return this;
+        }
+
+        public void setErrorHandler(Consumer<? super Exception> errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+
+        /**
+         * Create registry and load templates from directories.
+         * @return registry
+         * @throws IOException
+         * @throws IllegalStateException when templates with same name is found
+         */
+        public TemplateRegistry build() throws IOException {
+            return new TemplateRegistry(this);
+        }
+    }
+
+    private final TemplateLoader loader;
+    private final List<Path> directories;
+    private final String glob;
+    private final List<PathMatcher> matchers;
+    private final Consumer<? super Exception> errorHandler;
+    private final Map<String, SqlTemplate> templates = new ConcurrentHashMap<>();
+    /**
+     * Templates of each file, in order of file
+     */
+    private Map<Path, List<SqlTemplate>> files = new HashMap<>();
+    /**
+     * File of each template
+     */
+    private Map<String, Path> owners = new HashMap<>();
+    /**
+     * Immutable copy of templates, it is made on demand
+     */
+    private Map<String, SqlTemplate> view;
+    private WatchService watchService;
+    private Thread watcher;
+
+    TemplateRegistry(Builder builder) throws IOException {
+        this.loader = builder.loader == null? TemplateLoader.getDefault() : builder.loader;
+        if(builder.directories.isEmpty()) {
+            throw new IllegalArgumentException("directories is empty");
+        }
+        this.glob = Objects.requireNonNull(builder.glob, "glob is null");
+        List<Path> dirs = new ArrayList<>();
+        List<PathMatcher> matchers = new ArrayList<>();
+        for(Path dir : builder.directories) {
+            dirs.add(dir.toAbsolutePath().normalize());
+            matchers.add(dir.getFileSystem().getPathMatcher("glob:" + glob));
+        }
+        this.directories = Collections.unmodifiableList(dirs);
+        this.matchers = matchers;
+        this.errorHandler = builder.errorHandler;
+        reload();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get template by name. It never blocks.
+     * @param name name of template
+     * @return template or null
+     */
+    public SqlTemplate get(String name) {
+        return templates.get(name);
+    }
+
+    /**
+     * Immutable map of all templates, it does not reflect later changes. Map is copied once after each change.
+     * @return map with (template.name, template) entries.
+     */
+    public synchronized Map<String, SqlTemplate> getTemplates() {
+        if(view == null) {
+            view = Collections.unmodifiableMap(new HashMap<>(templates));
+        }
+        return view;
+    }
+
+    /**
+     * Parse all files again.
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found, in this case old templates remain
+     */
+    public synchronized void reload() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for(Path dir : directories) {
+            paths.addAll(TemplateLoader.findFiles(dir, glob));
+        }
+        Collections.sort(paths);
+        List<TemplateLoader.Source> sources = new ArrayList<>(paths.size());
+        for(Path path : paths) {
+            sources.add(TemplateLoader.fileSource(path));
+        }
+        List<List<SqlTemplate>> results = loader.parseAll(sources);
+        Map<Path, List<SqlTemplate>> files = new HashMap<>();
+        Map<String, Path> owners = new HashMap<>();
+        for(int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            List<SqlTemplate> list = results.get(i);
+            files.put(path, list);
+            for(int j = 0; j < list.size(); j++) {
+                String name = list.get(j).getName();
+                Path owner = owners.putIfAbsent(name, path);
+                if(owner != null) {
+                    throw duplicate(name, owner, path, list, j);
+                }
+            }
+        }
+        for(List<SqlTemplate> list : files.values()) {
+            for(SqlTemplate template : list) {
+                templates.put(template.getName(), template);
+            }
+        }
+        for(String name : this.owners.keySet()) {
+            if(!owners.containsKey(name)) {
+                templates.remove(name);
+            }
+        }
+        this.files = files;
+        this.owners = owners;
+        this.view = null;
+    }
+
+    /**
+     * Parse changed file again, or remove its templates when file is deleted. Only this file is parsed.
+     * When deleted path is a directory, templates of all its files are removed.
+     * @param file file from one of directories
+     * @throws IOException
+     * @throws IllegalStateException when templates with same name is found, in this case old templates remain
+     */
+    public synchronized void refresh(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        List<SqlTemplate> parsed = null;
+        if(isManaged(path) && Files.isRegularFile(path)) {
+            parsed = loader.parseFile(path);
+        }
+        List<Path> removed = new ArrayList<>();
+        if(parsed == null && !Files.exists(path)) {
+            // deleted or moved out file, or directory with files
+            for(Path owned : files.keySet()) {
+                if(owned.startsWith(path)) {
+                    removed.add(owned);
+                }
+            }
+        }
+        if(parsed == null && removed.isEmpty()) {
+            return;
+        }
+        if(parsed != null) {
+            removed.add(path);
+        }
+        // names which are released by changed files
+        Set<String> released = new HashSet<>();
+        for(Path owned : removed) {
+            List<SqlTemplate> prev = files.get(owned);
+            if(prev != null) {
+                for(SqlTemplate template : prev) {
+                    released.add(template.getName());
+                }
+            }
+        }
+        if(parsed != null) {
+            // check before any change, so old templates remain on error
+            Set<String> names = new HashSet<>();
+            for(int i = 0; i < parsed.size(); i++) {
+                String name = parsed.get(i).getName();
+                if(!names.add(name)) {
+                    throw duplicate(name, path, path, parsed, i);
+                }
+                Path owner = owners.get(name);
+                if(owner != null && !released.contains(name)) {
+                    throw duplicate(name, owner, path, parsed, i);
+                }
+            }
+        }
+        for(Path owned : removed) {
+            files.remove(owned);
+        }
+        if(parsed != null) {
+            files.put(path, parsed);
+            for(SqlTemplate template : parsed) {
+                String name = template.getName();
+                owners.put(name, path);
+                templates.put(name, template);
+                released.remove(name);
+            }
+        }
+        for(String name : released) {
+            owners.remove(name);
+            templates.remove(name);
+        }
+        view = null;
+    }
+
+    private static IllegalStateException duplicate(String name, Path owner, Path path, List<SqlTemplate> list, int index) {
+        if(!owner.equals(path)) {
+            return new IllegalStateException("Duplicate template '" + name + "' in " + owner + " and " + path);
+        }
+        // both are in same file, so they are distinguished by its positions
+        int first = 0;
+        while(!Objects.equals(name, list.get(first).getName())) {
+            first++;
+        }
+        return new IllegalStateException("Duplicate template '" + name + "' in " + path +
+          " at templates #" + (first + 1) + " and #" + (index + 1));
+    }
+
+    private boolean isManaged(Path path) {
+        for(int i = 0; i < directories.size(); i++) {
+            Path dir = directories.get(i);
+            if(path.startsWith(dir) && matchers.get(i).matches(dir.relativize(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start watching of directories in background thread. Registry can be started again after {@link #close()}.
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if(watchService != null) {
+            throw new IllegalStateException("Already started");
+        }
+        WatchService ws = directories.get(0).getFileSystem().newWatchService();
+        try {
+            for(Path dir : directories) {
+                register(ws, dir);
+            }
+        } catch(IOException | RuntimeException e) {
+            ws.close();
+            throw e;
+        }
+        watchService = ws;
+        watcher = new Thread(() -> watch(ws), "sql-templates-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void register(WatchService ws, Path dir) throws IOException {
+        try(Stream<Path> stream = Files.walk(dir)) {
+            for(Iterator<Path> i = stream.filter(Files::isDirectory).iterator(); i.hasNext();) {
+                i.next().register(ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+        }
+    }
+
+    private void watch(WatchService ws) {
+        try {
+            while(true) {
+                WatchKey key = ws.take();
+                Path dir = (Path)key.watchable();
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handle(ws, dir, event);
+                    } catch(ClosedWatchServiceException e) {
+                        throw e;
+                    } catch(IOException | RuntimeException e) {
+                        report(e);
+                    }
+                }
+                key.reset();
+            }
+        } catch(ClosedWatchServiceException | InterruptedException e) {
+            // registry is closed
+        }
+    }
+
+    private void handle(WatchService ws, Path dir, WatchEvent<?> event) throws IOException {
+        if(event.kind() == OVERFLOW) {
+            reload();
+            return;
+        }
+        Path path = dir.resolve((Path)event.context());
+        if(event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+            // files may be created before we start watching of directory
+            register(ws, path);
+            reload();
+            return;
+        }
+        refresh(path);
+    }
+
+    private void report(Exception e) {
+        if(errorHandler != null) {
+            errorHandler.accept(e);
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    /**
+     * Stop watching of directories. Templates remain available.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        WatchService ws;
+        Thread thread;
+        synchronized(this) {
+            ws = watchService;
+            thread = watcher;
+            watchService = null;
+            watcher = null;
+        }
+        if(ws == null) {
+            return;
+        }
+        ws.close();
+        if(thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
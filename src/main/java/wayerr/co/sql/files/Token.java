@@ -33,5 +33,22 @@ public interface Token {
      */
     String getContent();
 
+    /**
+     * Same as {@link #getRaw()} but without copying, it is a view over buffer of parser which is valid
+     * only in handler scope, call {@code toString()} on it when you need to keep it.
+     * @return raw content of token
+     */
+    default CharSequence getRawChars() {
+        return getRaw();
+    }
+
+    /**
+     * Same as {@link #getContent()} but without copying, see {@link #getRawChars()}.
+     * @return processed content of token
+     */
+    default CharSequence getContentChars() {
+        return getContent();
+    }
+
     TokenType getType();
 }
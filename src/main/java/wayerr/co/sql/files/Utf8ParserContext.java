@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Context which parse UTF-8 (or ASCII) bytes without decoding them. All syntax
+ * characters are ASCII, therefore only multibyte characters is decoded when
+ * tokenizer must check them, text of tokens is decoded by {@link Utf8Slice} on demand.
+ * <p/>
+ * Like {@link ParserContext} it can read stream by blocks or take pushed chunks, character
+ * which is split by end of block is left for next block.
+ * @author wayerr
+ */
+class Utf8ParserContext extends AbstractParserContext {
+
+    /**
+     * Default count of bytes which is read from stream at once.
+     */
+    static final int BLOCK_SIZE = 8192;
+
+    private ByteBuffer buf;
+    /**
+     * End of valid bytes in buffer
+     */
+    private int limit;
+    /**
+     * True when buffer is filled from stream which is not ended yet.
+     */
+    private boolean partial;
+    private final Utf8Slice raw = new Utf8Slice();
+    private final Utf8Slice content = new Utf8Slice();
+
+    Utf8ParserContext() {
+    }
+
+    /**
+     * Create context which is bound to buffer, it used for parsing ranges of buffer.
+     * @see #parse(int, int)
+     * @param bytes buffer
+     */
+    Utf8ParserContext(ByteBuffer bytes) {
+        this.buf = bytes;
+    }
+
+    /**
+     * Check that bytes in this charset can be parsed by this context.
+     * @param charset charset
+     * @return true for UTF-8 and its subsets
+     */
+    static boolean isSupported(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+    /**
+     * Parse all remaining bytes of buffer. Position of buffer is not changed.
+     * @param bytes buffer
+     */
+    void parse(ByteBuffer bytes) {
+        this.buf = bytes;
+        parse(bytes.position(), bytes.limit());
+    }
+
+    /**
+     * Parse all bytes of stream, stream is not closed.
+     * @param text stream of UTF-8 bytes
+     * @throws IOException
+     */
+    void parse(InputStream text) throws IOException {
+        while(parseBlock(text)) {
+            // next block
+        }
+    }
+
+    /**
+     * Read and scan next block of stream. Must not be called after it return false.
+     * @see ParserContext#parseBlock(java.io.Reader)
+     * @param text stream
+     * @return false when end of stream is reached and last token is handled
+     * @throws IOException
+     */
+    boolean parseBlock(InputStream text) throws IOException {
+        partial = fill(text);
+        scan();
+        if(partial) {
+            return true;
+        }
+        finish();
+        return false;
+    }
+
+    /**
+     * Scan chunk of bytes which is pushed by caller, chunk is copied into buffer. Character
+     * which is split by end of chunk is left for next chunk.
+     * @see #parseEnd()
+     * @param chunk bytes, it is consumed
+     */
+    void parseChunk(ByteBuffer chunk) {
+        int len = chunk.remaining();
+        prepare(len);
+        chunk.get(buf.array(), limit, len);
+        limit += len;
+        partial = true;
+        scan();
+    }
+
+    /**
+     * Handle rest of bytes and last token after all chunks.
+     * @see #parseChunk(ByteBuffer)
+     */
+    void parseEnd() {
+        partial = false;
+        scan();
+        finish();
+    }
+
+    /**
+     * Read next block of stream into buffer.
+     * @param text stream
+     * @return false when end of stream is reached
+     * @throws IOException
+     */
+    private boolean fill(InputStream text) throws IOException {
+        prepare(1);
+        byte[] arr = buf.array();
+        int read = text.read(arr, limit, arr.length - limit);
+        if(read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Make room for new bytes. Unfinished token is moved to begin of buffer,
+     * buffer is grown when token does not fit into it.
+     * @param room count of bytes
+     */
+    private void prepare(int room) {
+        if(buf == null) {
+            buf = ByteBuffer.wrap(new byte[Math.max(BLOCK_SIZE, room)]);
+        }
+        byte[] arr = buf.array();
+        if(start > 0) {
+            int len = limit - start;
+            System.arraycopy(arr, start, arr, 0, len);
+            limit = len;
+            pos -= start;
+            start = 0;
+        }
+        if(arr.length - limit < room) {
+            buf = ByteBuffer.wrap(Arrays.copyOf(arr, Math.max(arr.length * 2, limit + room)));
+        }
+    }
+
+    @Override
+    void parse(int from, int to) {
+        this.pos = this.start = from;
+        this.limit = to;
+        scan();
+        finish();
+    }
+
+    private void scan() {
+        final ByteBuffer buf = this.buf;
+        final int limit = this.limit;
+        while(pos < limit) {
+            if(isSkippable()) {
+                pos = DelimiterScanner.skip(buf, pos, limit);
+                if(pos == limit) {
+                    break;
+                }
+            }
+            int b = buf.get(pos);
+            if(b >= 0) {
+                pos++;
+                step(b, 1);
+                continue;
+            }
+            int packed = Utf8Slice.decode(buf, pos, limit);
+            if(packed == Utf8Slice.TRUNCATED && partial) {
+                // rest of character is in next block
+                break;
+            }
+            int width = 1;
+            int c = Utf8Slice.REPLACEMENT;
+            if(packed != Utf8Slice.TRUNCATED) {
+                width = packed >>> 16;
+                c = (char)packed;
+            }
+            pos += width;
+            step(c, width);
+        }
+    }
+
+    @Override
+    CharSequence slice(int begin, int end, boolean content) {
+        return (content? this.content : this.raw).set(buf, begin, end - begin);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * View of UTF-8 encoded range of byte buffer. Pure ASCII range is accessed directly,
+ * other range is decoded into internal char array at first access.
+ * Like {@link CharSlice} it valid only while owner of buffer does not reuse it.
+ * @author wayerr
+ */
+final class Utf8Slice implements CharSequence {
+    static final char REPLACEMENT = '\uFFFD';
+    /**
+     * Returned by {@link #decode(ByteBuffer, int, int)} when sequence is truncated by limit.
+     */
+    static final int TRUNCATED = -1;
+
+    private ByteBuffer buf;
+    private int offset;
+    private int byteLength;
+    /**
+     * Count of chars, negative when range is not examined yet.
+     */
+    private int length;
+    private boolean ascii;
+    private char[] chars;
+
+    Utf8Slice() {
+    }
+
+    Utf8Slice(ByteBuffer buf, int offset, int byteLength) {
+        set(buf, offset, byteLength);
+    }
+
+    /**
+     * Point this view to other range.
+     * @param buf buffer
+     * @param offset begin of range
+     * @param byteLength length of range in bytes
+     * @return this
+     */
+    Utf8Slice set(ByteBuffer buf, int offset, int byteLength) {
+        this.buf = buf;
+        this.offset = offset;
+        this.byteLength = byteLength;
+        this.length = -1;
+        return this;
+    }
+
+    /**
+     * Decode character which begins at specified position of buffer. Malformed sequence
+     * is decoded as one-byte {@link #REPLACEMENT}, four-byte sequence is decoded as its high surrogate.
+     * @param buf buffer
+     * @param index position of first byte
+     * @param limit end of available bytes
+     * @return character and count of its bytes as {@code (width << 16) | char},
+     *      or {@link #TRUNCATED} when sequence is not fit before limit
+     */
+    static int decode(ByteBuffer buf, int index, int limit) {
+        int b = buf.get(index);
+        if(b >= 0) {
+            return (1 << 16) | b;
+        }
+        int width;
+        int c;
+        if((b & 0xE0) == 0xC0) {
+            width = 2;
+            c = b & 0x1F;
+        } else if((b & 0xF0) == 0xE0) {
+            width = 3;
+            c = b & 0x0F;
+        } else if((b & 0xF8) == 0xF0) {
+            width = 4;
+            c = b & 0x07;
+        } else {
+            return (1 << 16) | REPLACEMENT;
+        }
+        if(index + width > limit) {
+            // check that available part is valid, otherwise it never be completed
+            for(int i = index + 1; i < limit; i++) {
+                if((buf.get(i) & 0xC0) != 0x80) {
+                    return (1 << 16) | REPLACEMENT;
+                }
+            }
+            return TRUNCATED;
+        }
+        for(int i = 1; i < width; i++) {
+            int cb = buf.get(index + i);
+            if((cb & 0xC0) != 0x80) {
+                return (1 << 16) | REPLACEMENT;
+            }
+            c = (c << 6) | (cb & 0x3F);
+        }
+        if(width == 4) {
+            c = Character.highSurrogate(c);
+        }
+        return (width << 16) | c;
+    }
+
+    private void examine() {
+        if(length >= 0) {
+            return;
+        }
+        final int end = offset + byteLength;
+        for(int i = offset; i < end; i++) {
+            if(buf.get(i) < 0) {
+                decodeAll();
+                return;
+            }
+        }
+        ascii = true;
+        length = byteLength;
+    }
+
+    private void decodeAll() {
+        // chars is never more than bytes
+        if(chars == null || chars.length < byteLength) {
+            chars = new char[byteLength];
+        }
+        final int end = offset + byteLength;
+        int len = 0;
+        int i = offset;
+        while(i < end) {
+            int packed = decode(buf, i, end);
+            if(packed == TRUNCATED) {
+                chars[len++] = REPLACEMENT;
+                i++;
+                continue;
+            }
+            int width = packed >>> 16;
+            char c = (char)packed;
+            if(width == 4) {
+                chars[len++] = c;
+                chars[len++] = Character.lowSurrogate(decodeCodePoint(i));
+            } else {
+                chars[len++] = c;
+            }
+            i += width;
+        }
+        ascii = false;
+        length = len;
+    }
+
+    private int decodeCodePoint(int index) {
+        return ((buf.get(index) & 0x07) << 18) |
+          ((buf.get(index + 1) & 0x3F) << 12) |
+          ((buf.get(index + 2) & 0x3F) << 6) |
+          (buf.get(index + 3) & 0x3F);
+    }
+
+    @Override
+    public int length() {
+        examine();
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        examine();
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return ascii? (char)buf.get(offset + index) : chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        examine();
+        if(start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+        if(ascii) {
+            return new Utf8Slice(buf, offset + start, end - start);
+        }
+        return new CharSlice(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        examine();
+        if(!ascii) {
+            return new String(chars, 0, length);
+        }
+        if(buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + offset, byteLength, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[byteLength];
+        ByteBuffer dup = buf.duplicate();
+        // cast keeps linkage to Buffer.position(int) which exists in Java 8
+        ((java.nio.Buffer)dup).position(offset);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -17,17 +17,22 @@
 
 package wayerr.co.sql.files;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  */
 class Utils {
 
     static Map<String, String> immutableCopy(Map<String, String> map) {
-        if(map == null) {
-            return Collections.emptyMap();
-        }
-        return Collections.unmodifiableMap(new HashMap<>(map));
+        return SmallMap.copyOf(map);
     }
 
     static <T> List<T> immutableCopy(List<T> list) {
@@ -36,4 +41,157 @@ class Utils {
         }
         return Collections.unmodifiableList(new ArrayList<>(list));
     }
+
+    /**
+     * Same as {@code sb.toString().trim()} but without intermediate string.
+     */
+    static String trimToString(StringBuilder sb) {
+        int begin = 0;
+        int end = sb.length();
+        while(begin < end && sb.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while(end > begin && sb.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return sb.substring(begin, end);
+    }
+
+    /**
+     * Same as {@code cs.toString().trim().endsWith(c)} but without intermediate strings.
+     */
+    static boolean trimmedEndsWith(CharSequence cs, char c) {
+        int end = cs.length();
+        while(end > 0 && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end > 0 && cs.charAt(end - 1) == c;
+    }
+
+    /**
+     * Same as {@code cs.toString().trim().equals(str)} but without intermediate strings.
+     */
+    static boolean trimmedEquals(CharSequence cs, String str) {
+        int begin = 0;
+        int end = cs.length();
+        while(begin < end && cs.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while(end > begin && cs.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int len = str.length();
+        if(end - begin != len) {
+            return false;
+        }
+        for(int i = 0; i < len; i++) {
+            if(cs.charAt(begin + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for future and rethrow its exception without wrapper. Message of {@link UncheckedIOException}
+     * usually contains location of failed source, therefore it is kept in thrown IOException.
+     */
+    static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof UncheckedIOException) {
+                throw new IOException(cause.getMessage(), cause.getCause());
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for all futures in order, when one of them fails the remaining are cancelled,
+     * so tasks which are not started yet do not run.
+     */
+    static <T> List<T> joinAll(List<CompletableFuture<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for(CompletableFuture<T> future : futures) {
+                results.add(join(future));
+            }
+        } catch(IOException | RuntimeException | Error e) {
+            for(CompletableFuture<T> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Read all chars of reader.
+     * @param reader reader
+     * @return buffer which has array with chars from zero to limit
+     */
+    static CharBuffer readFully(Reader reader) throws IOException {
+        char[] buf = new char[8192];
+        int len = 0;
+        int read;
+        while((read = reader.read(buf, len, buf.length - len)) != -1) {
+            len += read;
+            if(len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return CharBuffer.wrap(buf, 0, len);
+    }
+
+    /**
+     * Read all bytes of stream.
+     * @param is stream
+     * @return buffer which has array with bytes from zero to limit
+     */
+    static ByteBuffer readFully(InputStream is) throws IOException {
+        byte[] buf = new byte[8192];
+        int len = 0;
+        int read;
+        while((read = is.read(buf, len, buf.length - len)) != -1) {
+            len += read;
+            if(len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return ByteBuffer.wrap(buf, 0, len);
+    }
+
+    /**
+     * View of collection, array or single value as list.
+     * @param value value
+     * @return list, empty for null
+     */
+    static List<?> asList(Object value) {
+        if(value instanceof List) {
+            return (List<?>)value;
+        }
+        if(value instanceof Collection) {
+            return new ArrayList<>((Collection<?>)value);
+        }
+        if(value != null && value.getClass().isArray()) {
+            if(value instanceof Object[]) {
+                return Arrays.asList((Object[])value);
+            }
+            int length = java.lang.reflect.Array.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for(int i = 0; i < length; i++) {
+                list.add(java.lang.reflect.Array.get(value, i));
+            }
+            return list;
+        }
+        return value == null? Collections.emptyList() : Collections.singletonList(value);
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Variant of scanner for multi-release jar. UTF-8 bytes are tested by eight at once
+ * (SWAR): every delimiter is compared with all bytes of long word, first matched byte
+ * is found by count of trailing zeros. Chars can not be read as words without unsafe
+ * access, therefore they are tested one by one as in scalar variant.
+ * @author wayerr
+ */
+final class DelimiterScanner {
+
+    static final long DELIMITERS = 1L << '\'' | 1L << '"' | 1L << '-' | 1L << '/' | 1L << '*'
+      | 1L << ':' | 1L << '\n' | 1L << '\r';
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long QUOTE = ONES * '\'';
+    private static final long DQUOTE = ONES * '"';
+    private static final long DASH = ONES * '-';
+    private static final long SLASH = ONES * '/';
+    private static final long STAR = ONES * '*';
+    private static final long COLON = ONES * ':';
+    private static final long LF = ONES * '\n';
+    private static final long CR = ONES * '\r';
+
+    private DelimiterScanner() {
+    }
+
+    static boolean isDelimiter(int c) {
+        return c >>> 6 == 0 && (DELIMITERS >>> c & 1) != 0;
+    }
+
+    static int skip(char[] buf, int from, int to) {
+        int i = from;
+        while(i < to && !isDelimiter(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    static int skip(ByteBuffer buf, int from, int to) {
+        int i = from;
+        while(i + Long.BYTES <= to) {
+            long found = delimiters((long)LONGS.get(buf, i));
+            if(found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += Long.BYTES;
+        }
+        while(i < to && !isDelimiter(buf.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Mark bytes which are equal to any delimiter.
+     * @param word eight bytes
+     * @return word with high bit in each matched byte
+     */
+    private static long delimiters(long word) {
+        // all delimiters are ASCII, so high bit is tested once and comparison
+        // is done on low seven bits, where sum with 0x7f does not carry into next byte
+        long low = word & LOW7;
+        long nonZero = ((low ^ QUOTE) + LOW7)
+          & ((low ^ DQUOTE) + LOW7)
+          & ((low ^ DASH) + LOW7)
+          & ((low ^ SLASH) + LOW7)
+          & ((low ^ STAR) + LOW7)
+          & ((low ^ COLON) + LOW7)
+          & ((low ^ LF) + LOW7)
+          & ((low ^ CR) + LOW7);
+        return ~(nonZero | word) & HIGH;
+    }
+}
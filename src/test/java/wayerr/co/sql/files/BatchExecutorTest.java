@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.StringReader;
+import java.sql.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class BatchExecutorTest {
+
+    private static final String TEXT = "--#insertUser batchSize=1000\n" +
+      "insert into users(id, name) values(/*$id type=integer*/, /*$name type=varchar*/)\n" +
+      "--#insertSmall batchSize=10 batchBytes=64\n" +
+      "insert into users(id, name) values(:id, :name)\n" +
+      "--#find\n" +
+      "select * from users where 1 = 1 /*?id {*/and id = :id/*}*/";
+
+    @Test
+    public void testBatches() throws Exception {
+        Map<String, SqlTemplate> templates = SqlParser.getDefault().parseToMap(new StringReader(TEXT));
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:batch", "SA", "")) {
+            try(Statement statement = connection.createStatement()) {
+                statement.execute("create table users(id int primary key, name varchar(20))");
+            }
+            List<Integer> sizes = new ArrayList<>();
+            BatchExecutor.Stats stats;
+            try(BatchExecutor executor = BatchExecutor.builder(templates.get("insertUser"))
+              .listener((rows, bytes, nanos) -> sizes.add(rows))
+              .build(connection)) {
+                assertEquals(2500, executor.addAll(IntStream.range(0, 2500).mapToObj(i -> {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("id", i);
+                    row.put("name", "user" + i);
+                    return row;
+                })));
+                stats = executor.getStats();
+            }
+            assertEquals(Arrays.asList(1000, 1000, 500), sizes);
+            assertEquals(2500, stats.getRows());
+            assertEquals(3, stats.getBatches());
+            assertTrue(stats.getMaxBatchNanos() >= stats.getMeanBatchNanos());
+            assertEquals(2500, count(connection));
+
+            sizes.clear();
+            try(BatchExecutor executor = BatchExecutor.builder(templates.get("insertSmall"))
+              .listener((rows, bytes, nanos) -> sizes.add(rows))
+              .build(connection)) {
+                // 4 bytes of id and 12 bytes of name
+                for(int i = 0; i < 5; i++) {
+                    executor.add(10000 + i, "abcdef");
+                }
+                assertEquals(Arrays.asList(4), sizes);
+                executor.add(Collections.singletonMap("id", 20000));
+            }
+            assertEquals(Arrays.asList(4, 2), sizes);
+            assertEquals(2506, count(connection));
+        }
+    }
+
+    @Test
+    public void testStatsBeforeFlush() throws Exception {
+        Map<String, SqlTemplate> templates = SqlParser.getDefault().parseToMap(new StringReader(TEXT));
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:batchStats", "SA", "")) {
+            try(Statement statement = connection.createStatement()) {
+                statement.execute("create table users(id int primary key, name varchar(20))");
+            }
+            try(BatchExecutor executor = BatchExecutor.builder(templates.get("insertUser")).build(connection)) {
+                BatchExecutor.Stats stats = executor.getStats();
+                assertEquals(0, stats.getNanos());
+                assertEquals(0, stats.getBatches());
+                executor.add(1, "first");
+                long nanos = executor.getStats().getNanos();
+                assertTrue(nanos >= 0);
+                Thread.sleep(2);
+                stats = executor.getStats();
+                // time goes on until first batch is executed
+                assertTrue(stats.getNanos() > nanos);
+                assertEquals(0, stats.getRows());
+                assertEquals(0, stats.getBatches());
+                executor.flush();
+                nanos = executor.getStats().getNanos();
+                assertTrue(nanos > 0);
+                Thread.sleep(2);
+                assertEquals(nanos, executor.getStats().getNanos());
+            }
+        }
+    }
+
+    private int count(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("select count(*) from users")) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSections() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(TEXT)).get("find");
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:batch", "SA", "")) {
+            BatchExecutor.builder(template).build(connection);
+        }
+    }
+}
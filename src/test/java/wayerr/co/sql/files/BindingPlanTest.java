@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.StringReader;
+import java.sql.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class BindingPlanTest {
+
+    @Test
+    public void testBind() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect cast(/*$a type=integer*/ as int), cast(:b as varchar(10)), cast(/*$a type=integer*/ as int) + 1 from (values(0))"
+        )).get("q");
+        BindingPlan plan = template.getBindingPlan();
+        assertSame(plan, template.getBindingPlan());
+        assertEquals(Arrays.asList("a", "b"), plan.getNames());
+        assertEquals(1, plan.indexOf("b"));
+        assertEquals(-1, plan.indexOf("c"));
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:plan", "SA", "");
+            PreparedStatement statement = connection.prepareStatement(template.getQuery())) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("a", 7);
+            plan.bind(statement, values);
+            assertEquals(Arrays.asList("7", null, "8"), row(statement));
+            plan.bind(statement, 2, "x");
+            assertEquals(Arrays.asList("2", "x", "3"), row(statement));
+        }
+    }
+
+    @Test
+    public void testBindVariant() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect count(*), min(x), max(x) from (values(1),(2),(3),(4),(5)) as t(x)" +
+          " where x in (/*$ids type=integer expand=true*/) and x > /*$min type=integer*/"
+        )).get("q");
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:plan", "SA", "")) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("ids", Arrays.asList(1, 3, 5));
+            values.put("min", 2);
+            SqlTemplate.Variant variant = template.getVariant(values);
+            assertEquals(5, variant.getParams().size());
+            try(PreparedStatement statement = connection.prepareStatement(variant.getQuery())) {
+                variant.bind(statement, values);
+                // last placeholder is padded by last element
+                assertEquals(Arrays.asList("2", "3", "5"), row(statement));
+                values.put("ids", Collections.emptyList());
+                variant = template.getVariant(values);
+            }
+            try(PreparedStatement statement = connection.prepareStatement(variant.getQuery())) {
+                variant.bind(statement, values);
+                assertEquals(Arrays.asList("0", null, null), row(statement));
+            }
+        }
+    }
+
+    private List<String> row(PreparedStatement statement) throws SQLException {
+        List<String> list = new ArrayList<>();
+        try(ResultSet rs = statement.executeQuery()) {
+            assertTrue(rs.next());
+            for(int i = 1; i <= 3; i++) {
+                list.add(rs.getString(i));
+            }
+        }
+        return list;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownType() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect /*$a type=uuid*/"
+        )).get("q");
+        template.getBindingPlan();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExpandedParam() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect 1 from t where id in (/*$ids expand=true*/)"
+        )).get("q");
+        template.getBindingPlan();
+    }
+}
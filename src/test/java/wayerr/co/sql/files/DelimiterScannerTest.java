@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class DelimiterScannerTest {
+
+    private static final String VERSIONED = "META-INF/versions/17/wayerr/co/sql/files/DelimiterScanner.class";
+    private static final String ALPHABET = "ab Z09_.,;()=\t'\"-/*:\n\réж€😀";
+
+    @Test
+    public void test() {
+        char[] text = "select  a.* from t -- x".toCharArray();
+        assertEquals(10, DelimiterScanner.skip(text, 0, text.length));
+        assertEquals(8, DelimiterScanner.skip(text, 0, 8));
+        assertEquals(19, DelimiterScanner.skip(text, 11, text.length));
+        ByteBuffer bytes = ByteBuffer.wrap("жжжжж €:".getBytes(StandardCharsets.UTF_8));
+        assertEquals(14, DelimiterScanner.skip(bytes, 0, bytes.limit()));
+        assertEquals(13, DelimiterScanner.skip(bytes, 0, 13));
+    }
+
+    /**
+     * Class from multi-release part is not visible in classes directory, therefore it is
+     * loaded explicitly and compared with scalar variant.
+     */
+    @Test
+    public void testVersioned() throws Exception {
+        byte[] code;
+        try(InputStream is = getClass().getClassLoader().getResourceAsStream(VERSIONED)) {
+            Assume.assumeNotNull(is);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while((read = is.read(buf)) > 0) {
+                baos.write(buf, 0, read);
+            }
+            code = baos.toByteArray();
+        }
+        Class<?> versioned = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define() {
+                return defineClass(DelimiterScanner.class.getName(), code, 0, code.length);
+            }
+        }.define();
+        Method skipBytes = versioned.getDeclaredMethod("skip", ByteBuffer.class, int.class, int.class);
+        Method skipChars = versioned.getDeclaredMethod("skip", char[].class, int.class, int.class);
+        skipBytes.setAccessible(true);
+        skipChars.setAccessible(true);
+        Random random = new Random(42);
+        for(int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(40);
+            for(int j = 0; j < len; j++) {
+                // mostly plain characters, for long runs between delimiters
+                int k = random.nextInt(4) == 0? random.nextInt(ALPHABET.length()) : random.nextInt(4);
+                char c = ALPHABET.charAt(k);
+                sb.append(c);
+                if(Character.isHighSurrogate(c)) {
+                    sb.append(ALPHABET.charAt(k + 1));
+                }
+            }
+            String text = sb.toString();
+            char[] chars = text.toCharArray();
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.limit());
+            direct.put(bytes.duplicate()).clear();
+            for(int from = 0; from <= bytes.limit(); from++) {
+                int expected = DelimiterScanner.skip(bytes, from, bytes.limit());
+                assertEquals(text, expected, skipBytes.invoke(null, bytes, from, bytes.limit()));
+                assertEquals(text, expected, skipBytes.invoke(null, direct, from, bytes.limit()));
+            }
+            for(int from = 0; from <= chars.length; from++) {
+                int expected = DelimiterScanner.skip(chars, from, chars.length);
+                assertEquals(text, expected, skipChars.invoke(null, chars, from, chars.length));
+            }
+        }
+    }
+}
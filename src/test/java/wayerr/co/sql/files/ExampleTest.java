@@ -19,8 +19,7 @@ package wayerr.co.sql.files;
 
 import org.junit.Test;
 
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
 import java.sql.*;
 import java.util.HashMap;
 import java.util.List;
@@ -34,8 +33,8 @@ public class ExampleTest {
     public void example1() throws Exception {
         // load templates
         Map<String, SqlTemplate> templates;
-        try(Reader reader = new InputStreamReader(getClass().getResourceAsStream("./example.sql"), "UTF-8")) {
-            templates = SqlParser.getDefault().parseToMap(reader);
+        try(InputStream is = getClass().getResourceAsStream("./example.sql")) {
+            templates = SqlParser.getDefault().parseToMap(is);
         }
         // use template with JDBC
         Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:mymemdb", "SA", "");
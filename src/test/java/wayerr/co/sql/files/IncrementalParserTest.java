@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class IncrementalParserTest {
+
+    @Test
+    public void testChunks() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") + readResource("./example.sql") +
+          "--#u\nselect :имя, 'ъ''ы' \"ю\"--й\n/*Ж*/:ф.ы_1 /*$𝔸 type=INT*/";
+        List<SqlTemplate> expected = new ArrayList<>();
+        SqlParser.getDefault().parse(new StringReader(text), expected::add);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for(int chunk = 1; chunk < 20; chunk++) {
+            List<SqlTemplate> actual = new ArrayList<>();
+            IncrementalParser parser = SqlParser.getDefault().incremental(actual::add);
+            // chunk buffer is reused like in network code
+            ByteBuffer buf = ByteBuffer.allocate(chunk);
+            for(int i = 0; i < bytes.length; i += chunk) {
+                buf.clear();
+                buf.put(bytes, i, Math.min(chunk, bytes.length - i)).flip();
+                parser.feed(buf);
+                assertFalse(buf.hasRemaining());
+            }
+            parser.finish();
+            assertEquals("bytes chunk: " + chunk, expected, actual);
+
+            actual.clear();
+            parser = SqlParser.getDefault().incremental(actual::add);
+            for(int i = 0; i < text.length(); i += chunk) {
+                parser.feed(CharBuffer.wrap(text, i, Math.min(i + chunk, text.length())));
+            }
+            parser.finish();
+            assertEquals("chars chunk: " + chunk, expected, actual);
+        }
+    }
+
+    @Test
+    public void testEarlyEmit() {
+        List<SqlTemplate> actual = new ArrayList<>();
+        IncrementalParser parser = SqlParser.getDefault().incremental(actual::add);
+        parser.feed(CharBuffer.wrap("--#a\nselect 1\n--"));
+        assertTrue(actual.isEmpty());
+        parser.feed(CharBuffer.wrap("#b\nselect :p"));
+        assertEquals(1, actual.size());
+        assertEquals("a", actual.get(0).getName());
+        try {
+            parser.feed(ByteBuffer.wrap(new byte[1]));
+            fail("Bytes are mixed with chars");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        parser.finish();
+        assertTrue(parser.isFinished());
+        assertEquals(2, actual.size());
+        assertEquals("select ?", actual.get(1).getQuery());
+        parser.finish();
+        assertEquals(2, actual.size());
+        try {
+            parser.feed(CharBuffer.wrap("select 2"));
+            fail("Parser is fed after finish");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSubscriber() {
+        List<SqlTemplate> actual = new ArrayList<>();
+        IncrementalParser parser = SqlParser.getDefault().incremental(actual::add);
+        ChunkSubscriber<ByteBuffer> subscriber = parser.byteSubscriber();
+        subscriber.onNext(ByteBuffer.wrap("--#a\nselect 1\n--".getBytes(StandardCharsets.UTF_8)));
+        subscriber.onNext(ByteBuffer.wrap("#b\nselect :p".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(parser.getCompletion().isDone());
+        subscriber.onComplete();
+        assertTrue(parser.getCompletion().isDone());
+        assertFalse(parser.getCompletion().isCompletedExceptionally());
+        assertEquals(2, actual.size());
+        assertEquals("select ?", actual.get(1).getQuery());
+
+        actual.clear();
+        parser = SqlParser.getDefault().incremental(actual::add);
+        ChunkSubscriber<CharBuffer> charSubscriber = parser.charSubscriber();
+        charSubscriber.onNext(CharBuffer.wrap("--#a\nselect 1\n--#b\nselect"));
+        IllegalStateException error = new IllegalStateException("Connection reset");
+        charSubscriber.onError(error);
+        assertTrue(parser.isFinished());
+        // partially parsed template is dropped
+        assertEquals(1, actual.size());
+        assertEquals("a", actual.get(0).getName());
+        try {
+            parser.getCompletion().join();
+            fail("Completion of failed parser");
+        } catch(CompletionException e) {
+            assertSame(error, e.getCause());
+        }
+        charSubscriber.onComplete();
+        assertEquals(1, actual.size());
+        try {
+            charSubscriber.onNext(CharBuffer.wrap("select 2"));
+            fail("Parser is fed after error");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private String readResource(String name) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try(Reader r = new InputStreamReader(getClass().getResourceAsStream(name), StandardCharsets.UTF_8)) {
+            char[] buf = new char[1024];
+            int read;
+            while((read = r.read(buf)) != -1) {
+                sb.append(buf, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -72,6 +72,41 @@ public class MacroParserTest {
         end(mp);
     }
 
+    @Test
+    public void testView() {
+        char[] arr = "#name k=\"v\\\"al\" tail".toCharArray();
+        MacroParser mp = new MacroParser(new CharSlice(arr, 1, arr.length - 6), 0);
+        mp.next();
+        expectValue(mp, "name");
+        mp.next();
+        expectKv(mp, "k", "v\"al");
+        end(mp);
+    }
+
+    @Test
+    public void testOffsets() {
+        String src = "name ty\\pe=\"VAR CHAR\" x";
+        MacroParser mp = create(src);
+        mp.next();
+        assertEquals(-1, mp.getKeyBegin());
+        assertEquals("name", src.substring(mp.getValueBegin(), mp.getValueEnd()));
+        assertTrue(mp.valueEquals("name"));
+        assertFalse(mp.valueEquals("nam"));
+        assertFalse(mp.keyEquals("name"));
+        mp.next();
+        assertTrue(mp.isKeyEscaped());
+        assertFalse(mp.isValueEscaped());
+        assertEquals("ty\\pe", src.substring(mp.getKeyBegin(), mp.getKeyEnd()));
+        assertTrue(mp.keyEquals("type"));
+        assertFalse(mp.keyEquals("typ"));
+        assertFalse(mp.keyEquals("typee"));
+        assertTrue(mp.valueEquals("VAR CHAR"));
+        expectKv(mp, "type", "VAR CHAR");
+        mp.next();
+        assertTrue(mp.valueEquals("x"));
+        end(mp);
+    }
+
     private void end(MacroParser mp) {
         assertTrue(mp.isEnd());
     }
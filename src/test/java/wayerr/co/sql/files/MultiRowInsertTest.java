@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.StringReader;
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class MultiRowInsertTest {
+
+    private static final String TEXT = "--#insertUsers maxRows=10\n" +
+      "insert into users(id, name) values /*+rows sep=, {*/(/*$id type=integer*/, :name)/*}*/";
+
+    @Test
+    public void testChunks() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(TEXT)).get("insertUsers");
+        MultiRowInsert insert = MultiRowInsert.of(template);
+        assertEquals(8, insert.getMaxRows());
+        List<Integer> rows = IntStream.range(0, 21).boxed().collect(Collectors.toList());
+        assertEquals(Arrays.asList(8, 8, 4, 1),
+          insert.chunk(rows).stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(4, 4, 4, 4, 4, 1),
+          MultiRowInsert.of(template, 7).chunk(rows).stream().map(List::size).collect(Collectors.toList()));
+        assertTrue(insert.chunk(Collections.emptyList()).isEmpty());
+
+        SqlTemplate.Variant variant = insert.getVariant(2);
+        assertEquals("insert into users(id, name) values  (?, ?),(?, ?)", variant.getQuery());
+        assertEquals(Arrays.asList("id", "name", "id", "name"),
+          variant.getParams().stream().map(SqlTemplate.Param::getName).collect(Collectors.toList()));
+        assertEquals(1, variant.getRepetition(2));
+        assertSame(variant, insert.getVariant(2));
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(TEXT)).get("insertUsers");
+        MultiRowInsert insert = MultiRowInsert.of(template);
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:multirow", "SA", "")) {
+            try(Statement statement = connection.createStatement()) {
+                statement.execute("create table users(id int primary key, name varchar(20))");
+            }
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for(int i = 0; i < 13; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", i);
+                row.put("name", "user" + i);
+                rows.add(row);
+            }
+            assertEquals(13, insert.execute(connection, rows));
+            try(Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select count(*), sum(id), max(name) from users")) {
+                assertTrue(rs.next());
+                assertEquals(13, rs.getInt(1));
+                assertEquals(78, rs.getInt(2));
+                assertEquals("user9", rs.getString(3));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithoutSection() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\ninsert into users(id) values (:id)")).get("q");
+        MultiRowInsert.of(template);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class SmallMapTest {
+
+    @Test
+    public void test() {
+        SmallMap map = SmallMap.with(null, "title", "First");
+        map = SmallMap.with(map, "javaType", "int");
+        map = SmallMap.with(map, "title", "Second");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("title", "Second");
+        expected.put("javaType", "int");
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals("int", map.get("javaType"));
+        assertNull(map.get("absent"));
+        assertTrue(map.containsKey("title"));
+        assertSame(map, SmallMap.copyOf(map));
+        assertEquals(expected, SmallMap.copyOf(expected));
+        assertSame(SmallMap.EMPTY, SmallMap.copyOf(null));
+        assertSame(SmallMap.EMPTY, SmallMap.copyOf(new HashMap<>()));
+        try {
+            map.put("a", "b");
+            fail("Map is modified");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLarge() {
+        SmallMap map = null;
+        Map<String, String> expected = new HashMap<>();
+        for(int i = 0; i < SmallMap.MAX_SIZE * 2; i++) {
+            map = SmallMap.with(map, "k" + i, "v" + i);
+            expected.put("k" + i, "v" + i);
+            assertEquals(expected, map);
+        }
+        map = SmallMap.with(map, "k3", "other");
+        expected.put("k3", "other");
+        assertEquals(expected, map);
+        assertEquals("other", map.get("k3"));
+        assertEquals("v20", map.get("k20"));
+        assertNull(map.get("absent"));
+        assertFalse(map.containsKey("k" + SmallMap.MAX_SIZE * 2));
+        // order of entries is kept
+        assertEquals("k0", map.keySet().iterator().next());
+        Map<String, String> copy = SmallMap.copyOf(expected);
+        assertTrue(copy instanceof SmallMap);
+        assertEquals(expected, copy);
+        assertEquals("v20", copy.get("k20"));
+        assertSame(copy, SmallMap.copyOf(copy));
+    }
+
+    @Test
+    public void testParsedAttributes() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new java.io.StringReader(
+          "--#q\nselect a --@a type=INT title=A\n, b --@b\n from t where x = /*$x k=1 k=2*/"
+        )).get("q");
+        assertEquals(Collections.singletonMap("title", "A"), template.getFields().get(0).getAttributes());
+        assertSame(SmallMap.EMPTY, template.getFields().get(1).getAttributes());
+        assertEquals(Collections.singletonMap("k", "2"), template.getParams().get(0).getAttributes());
+        assertTrue(template.getParams().get(0).getAttributes() instanceof SmallMap);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class SourceGeneratorTest {
+
+    @Test
+    public void testGenerate() throws Exception {
+        Map<String, SqlTemplate> templates;
+        try(Reader reader = new InputStreamReader(getClass().getResourceAsStream("./example.sql"), StandardCharsets.UTF_8)) {
+            templates = SqlParser.getDefault().parseToMap(reader);
+        }
+        String source = SourceGenerator.generate(templates.get("FirstExample"), "gen", "FirstExample");
+        assertTrue(source.contains("public static void bind(PreparedStatement ps, java.sql.Timestamp now)"));
+        assertTrue(source.contains("ps.setTimestamp(3, now);"));
+        assertTrue(source.contains("public static Integer getWeight(ResultSet rs)"));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            // run on jre
+            return;
+        }
+        Path dir = Files.createTempDirectory("sqlfiles");
+        try {
+            SourceGenerator.generate(templates.values(), "gen", dir);
+            Path file = dir.resolve("gen/FirstExample.java");
+            assertEquals(0, compiler.run(null, null, null, file.toString()));
+            try(URLClassLoader cl = new URLClassLoader(new URL[]{dir.toUri().toURL()})) {
+                Class<?> clazz = cl.loadClass("gen.FirstExample");
+                assertEquals(templates.get("FirstExample").getQuery(), clazz.getField("QUERY").get(null));
+                Method bind = clazz.getMethod("bind", PreparedStatement.class, Timestamp.class);
+                Method getWeight = clazz.getMethod("getWeight", ResultSet.class);
+                try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:generator", "SA", "");
+                    PreparedStatement statement = connection.prepareStatement((String)clazz.getField("QUERY").get(null))) {
+                    bind.invoke(null, statement, new Timestamp(System.currentTimeMillis()));
+                    List<Object> weights = new ArrayList<>();
+                    try(ResultSet rs = statement.executeQuery()) {
+                        while(rs.next()) {
+                            weights.add(getWeight.invoke(null, rs));
+                        }
+                    }
+                    assertEquals(Arrays.asList(1, 2, 3), weights);
+                }
+            }
+        } finally {
+            List<Path> paths = new ArrayList<>();
+            Files.walk(dir).forEach(paths::add);
+            Collections.reverse(paths);
+            for(Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testNames() {
+        assertEquals("TestExpr", SourceGenerator.className("test.expr"));
+        assertEquals("_1st", SourceGenerator.className("1st"));
+        SqlTemplate template = SqlTemplate.builder().name("q")
+          .addParam(new SqlTemplate.Param("class", "varchar", null, null))
+          .addParam(new SqlTemplate.Param("a.b", null, null, null))
+          .addParam(new SqlTemplate.Param("class", null, null, null))
+          .query("select ? from t where a = ? and b = ?")
+          .build();
+        String source = SourceGenerator.generate(template, "", "Q");
+        assertTrue(source, source.contains("bind(PreparedStatement ps, String class_, Object aB)"));
+        assertTrue(source, source.contains("ps.setString(3, class_);"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownType() {
+        SqlTemplate template = SqlTemplate.builder().name("q")
+          .addParam(new SqlTemplate.Param("id", "uuid", null, null))
+          .query("select ?")
+          .build();
+        SourceGenerator.generate(template, "", "Q");
+    }
+
+    @Test
+    public void testUnknownFieldType() {
+        SqlTemplate template = SqlTemplate.builder().name("q")
+          .addField(new SqlTemplate.Field("id", "uuid", null))
+          .query("select id from t")
+          .build();
+        try {
+            SourceGenerator.generate(template, "", "Q");
+            fail("Unknown type is not detected");
+        } catch(IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Template 'q', 'id': "));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSections() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new java.io.StringReader(
+          "--#q\nselect 1 from t where id in (/*$ids type=INTEGER expand=true*/)"
+        )).get("q");
+        SourceGenerator.generate(template, "", "Q");
+    }
+}
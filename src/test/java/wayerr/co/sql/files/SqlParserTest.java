@@ -16,11 +16,20 @@
  */
 package wayerr.co.sql.files;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -106,6 +115,17 @@ public class SqlParserTest {
                 );
     }
     
+    @Test
+    public void testEdgeCases() throws Exception {
+        // char which end parameter is not processed
+        testParser("x=:a'b'", pr(false, "x="), pr(false, ":a"), pr(false, "'b"), pr(false, "'"));
+        testParser("x::int, y=:p.q-- c\nz", pr(false, "x::int, y="), pr(false, ":p.q"), pr(true, "-- c"), pr(false, "\nz"));
+        testParser("/*/ a */", pr(true, "/*/"), pr(false, " a */"));
+        // parameter require char before colon in same token
+        testParser("'x':a,:b", pr(false, "'x'"), pr(false, ":a,"), pr(false, ":b"));
+        testParser("a--b\r:c", pr(false, "a"), pr(true, "--b"), pr(false, "\r"), pr(false, ":c"));
+    }
+
     private void testParser(String query, ParserResult ... prs) throws Exception {
         List<ParserResult> actuals = new ArrayList<>();
         ParserContext ctx = new ParserContext();
@@ -118,7 +138,346 @@ public class SqlParserTest {
         ctx.parse(new StringReader(query));
         assertArrayEquals(prs, actuals.toArray());
     }
-    
+
+    @Test
+    public void testBlockBoundary() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql");
+        List<ParserResult> expected = tokenize(new ParserContext(), text);
+        for(int blockSize = 1; blockSize < 20; blockSize++) {
+            assertEquals("block size: " + blockSize, expected, tokenize(new ParserContext(blockSize), text));
+        }
+    }
+
+    @Test
+    public void testUtf8Tokens() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") +
+          "select :имя, :a©b, x:𝔸, 'ъ''ы' \"ю\"--й\n/*Ж*/:ф.ы_1";
+        Utf8ParserContext ctx = new Utf8ParserContext();
+        List<ParserResult> actual = new ArrayList<>();
+        ctx.setTokenHandler(() -> {
+            actual.add(new ParserResult(!ctx.getType().isCode(), ctx.getRaw()));
+        });
+        ctx.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(tokenize(new ParserContext(), text), actual);
+    }
+
+    @Test
+    public void testPath() throws Exception {
+        SqlParser parser = SqlParser.getDefault();
+        for(String name : Arrays.asList("./test.sql", "./test2.sql")) {
+            String text = readResource(name);
+            Map<String, SqlTemplate> expected = parser.parseToMap(new StringReader(text));
+            Path file = Files.createTempFile("sqlfiles", ".sql");
+            try {
+                Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+                assertEquals(expected, parser.parseToMap(file));
+                Files.write(file, text.getBytes(StandardCharsets.UTF_16));
+                assertEquals(expected, parser.parseToMap(file, StandardCharsets.UTF_16));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testInputStream() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") +
+          "--#u\nselect :имя, :a©b, x:𝔸, 'ъ''ы' \"ю\"--й\n/*Ж*/:ф.ы_1";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<SqlTemplate> expected = new ArrayList<>();
+        SqlParser.getDefault().parse(new StringReader(text), expected::add);
+        assertEquals(SqlParser.getDefault().parseToMap(new StringReader(text)),
+          SqlParser.getDefault().parseToMap(new ByteArrayInputStream(bytes)));
+        for(int chunk = 1; chunk < 8; chunk++) {
+            // small reads split multibyte characters and tokens
+            int max = chunk;
+            InputStream is = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, max));
+                }
+            };
+            List<SqlTemplate> actual = new ArrayList<>();
+            SqlParser.getDefault().parse(is, actual::add);
+            assertEquals("chunk: " + chunk, expected, actual);
+        }
+        byte[] padded = new byte[bytes.length + 7];
+        Arrays.fill(padded, (byte)'-');
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SqlParser parallel = SqlParser.builder().executor(executor).segmentSize(1).build();
+            for(SqlParser parser : Arrays.asList(SqlParser.getDefault(), parallel)) {
+                List<SqlTemplate> actual = new ArrayList<>();
+                parser.parse(padded, 3, bytes.length, actual::add);
+                assertEquals(expected, actual);
+                actual.clear();
+                parser.parse(new ByteArrayInputStream(bytes), actual::add);
+                assertEquals(expected, actual);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") + readResource("./example.sql");
+        // sample value is not closed in first template, therefore it hides second header
+        String unclosed = "--#a\nselect /*$x {*/ 1\n--#b\nselect 2 /*}*/ 3\n--#c\nselect :c";
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            SqlParser parallel = SqlParser.builder().executor(executor).segmentSize(1).build();
+            for(String str : Arrays.asList(text, unclosed)) {
+                List<SqlTemplate> expected = new ArrayList<>();
+                SqlParser.getDefault().parse(new StringReader(str), expected::add);
+                List<SqlTemplate> actual = new ArrayList<>();
+                parallel.parse(new StringReader(str), actual::add);
+                assertEquals(expected, actual);
+                Path file = Files.createTempFile("sqlfiles", ".sql");
+                try {
+                    Files.write(file, str.getBytes(StandardCharsets.UTF_8));
+                    actual.clear();
+                    parallel.parse(file, StandardCharsets.UTF_8, actual::add);
+                    assertEquals(expected, actual);
+                } finally {
+                    Files.delete(file);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") + readResource("./example.sql");
+        List<SqlTemplate> expected = new ArrayList<>();
+        SqlParser.getDefault().parse(new StringReader(text), expected::add);
+        assertEquals(expected, SqlParser.getDefault().stream(new StringReader(text)).collect(Collectors.toList()));
+
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 10000; i++) {
+            sb.append("--#q").append(i).append(" n=").append(i).append("\nselect :p").append(i).append('\n');
+        }
+        int[] read = new int[1];
+        Reader reader = new StringReader(sb.toString()) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int res = super.read(cbuf, off, len);
+                read[0] += Math.max(res, 0);
+                return res;
+            }
+        };
+        Optional<SqlTemplate> first = SqlParser.getDefault().stream(reader)
+          .filter(t -> "3".equals(t.getAttributes().get("n")))
+          .findFirst();
+        assertEquals("select ?", first.get().getQuery());
+        assertTrue("read: " + read[0], read[0] < sb.length() / 2);
+    }
+
+    @Test
+    public void testDirection() throws Exception {
+        assertEquals(SqlTemplate.Direction.INOUT, SqlTemplate.Direction.from("inout"));
+        assertEquals(SqlTemplate.Direction.OUT, SqlTemplate.Direction.from("OUT"));
+        assertNull(SqlTemplate.Direction.from("Out"));
+        assertNull(SqlTemplate.Direction.from(null));
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\ncall p(/*$a dir=out*/, /*$b dir=INOUT*/, /*$c dir=\"in\"*/, /*$d dir=other*/)")).get("q");
+        List<SqlTemplate.Param> params = template.getParams();
+        assertEquals(SqlTemplate.Direction.OUT, params.get(0).getDirection());
+        assertEquals(SqlTemplate.Direction.INOUT, params.get(1).getDirection());
+        assertEquals(SqlTemplate.Direction.IN, params.get(2).getDirection());
+        assertEquals(SqlTemplate.Direction.IN, params.get(3).getDirection());
+    }
+
+    @Test
+    public void testInterner() throws Exception {
+        String text = "--#a kind=report\nselect name --@name type=VARCHAR title=Name\n from t where id = /*$id type=INT*/\n" +
+          "--#b kind=report\nselect name --@name type=VARCHAR title=Name\n from t where id = /*$id type=INT*/ or p = /*$p type=INT*/";
+        Interner interner = new Interner();
+        SqlParser parser = SqlParser.builder().interner(interner).build();
+        assertSame(interner, parser.getInterner());
+        Map<String, SqlTemplate> map = parser.parseToMap(new StringReader(text));
+        assertEquals(SqlParser.getDefault().parseToMap(new StringReader(text)), map);
+        SqlTemplate a = map.get("a");
+        SqlTemplate b = map.get("b");
+        assertSame(a.getFields().get(0), b.getFields().get(0));
+        assertSame(a.getParams().get(0), b.getParams().get(0));
+        assertSame(a.getParams().get(0).getType(), b.getParams().get(1).getType());
+        assertSame(a.getAttributes(), b.getAttributes());
+        assertSame(a.getFields().get(0).getAttributes(), b.getFields().get(0).getAttributes());
+        assertTrue(interner.getSavedBytes() > 0);
+    }
+
+    @Test
+    public void testSections() throws Exception {
+        String text = "--#find\nselect * from users where 1 = 1\n" +
+          " /*?name {*/and name = /*$name type=VARCHAR {*/'x'/*}*//*}*/\n" +
+          " /*?ids {*/and id in (/*+ids sep=, {*//*$ids*//*}*/)/*}*/\n" +
+          " order by id";
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(text)).get("find");
+        List<SqlTemplate.Section> sections = template.getSections();
+        assertEquals(3, sections.size());
+        assertEquals(SqlTemplate.Section.Kind.OPTIONAL, sections.get(0).getKind());
+        assertEquals(SqlTemplate.Section.Kind.REPEAT, sections.get(2).getKind());
+        assertEquals(",", sections.get(2).getSeparator());
+        assertEquals("and name = ?", template.getQuery().substring(sections.get(0).getQueryBegin(), sections.get(0).getQueryEnd()));
+        assertEquals("?", template.getQuery().substring(sections.get(2).getQueryBegin(), sections.get(2).getQueryEnd()));
+        assertEquals("select * from users where 1 = 1\n  and name = ? \n  and id in ( ? ) \n order by id", template.getQuery());
+
+        SqlTemplate.Variant none = template.getVariant(Collections.emptyMap());
+        assertEquals("select * from users where 1 = 1\n   \n   \n order by id", none.getQuery());
+        assertTrue(none.getParams().isEmpty());
+        assertSame(none, template.getVariant(0, 0, 0));
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "a");
+        values.put("ids", Arrays.asList(1, 2, 3));
+        SqlTemplate.Variant all = template.getVariant(values);
+        assertEquals("select * from users where 1 = 1\n  and name = ? \n  and id in ( ?,?,? ) \n order by id", all.getQuery());
+        assertEquals(Arrays.asList("name", "ids", "ids", "ids"),
+          all.getParams().stream().map(SqlTemplate.Param::getName).collect(Collectors.toList()));
+        assertEquals(2, all.getRepetition(3));
+        assertEquals(0, all.getRepetition(0));
+        assertSame(all, template.getVariant(1, 1, 3));
+        values.put("name", Boolean.FALSE);
+        values.put("ids", new int[]{7});
+        assertEquals("select * from users where 1 = 1\n   \n  and id in ( ? ) \n order by id", template.getVariant(values).getQuery());
+
+        // template without sections has only one variant
+        SqlTemplate plain = SqlParser.getDefault().parseToMap(new StringReader("--#p\nselect :a")).get("p");
+        assertEquals(plain.getQuery(), plain.getVariant().getQuery());
+        assertSame(plain.getVariant(), plain.getVariant(Collections.emptyMap()));
+        try {
+            template.getVariant(1, 1);
+            fail("State does not match sections");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            SqlParser.getDefault().parseToMap(new StringReader("--#a\nselect 1 /*?x {*/ and x = :x\n--#b\nselect 2"));
+            fail("Section is not closed");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHintsAreNotSections() throws Exception {
+        Map<String, SqlTemplate> templates = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#a\nselect /*+ INDEX(t i) */ * from t where x = :x\n" +
+          "--#b\n--? note\nselect /*+ordered*/ 1 --+ hint\n"
+        ));
+        SqlTemplate a = templates.get("a");
+        assertEquals("select /*+ INDEX(t i) */ * from t where x = ?", a.getQuery());
+        assertTrue(a.getSections().isEmpty());
+        assertEquals(1, a.getParams().size());
+        SqlTemplate b = templates.get("b");
+        assertTrue(b.getQuery().contains("/*+ordered*/"));
+        assertTrue(b.getSections().isEmpty());
+    }
+
+    @Test
+    public void testVariantsBound() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect 1 from t where id in (/*+ids sep=, {*//*$id*//*}*/)"
+        )).get("q");
+        for(int i = 0; i < SegmentProgram.MAX_VARIANTS + 10; i++) {
+            template.getVariant(i);
+        }
+        assertSame(template.getVariant(3), template.getVariant(3));
+        int count = SegmentProgram.MAX_VARIANTS + 5;
+        SqlTemplate.Variant uncached = template.getVariant(count);
+        assertNotSame(uncached, template.getVariant(count));
+        assertEquals(uncached.getQuery(), template.getVariant(count).getQuery());
+        assertEquals(count, uncached.getParams().size());
+    }
+
+    @Test
+    public void testParserWithoutSections() throws Exception {
+        TemplateParser defaults = new DefaultTemplateParser();
+        // parser which was written before sections
+        TemplateParser old = new TemplateParser() {
+            @Override
+            public SqlTemplate.Field parseField(Context ctx) {
+                return defaults.parseField(ctx);
+            }
+
+            @Override
+            public SqlTemplate.Param parseParam(Context ctx) {
+                return defaults.parseParam(ctx);
+            }
+
+            @Override
+            public String parseTemplate(Context ctx) {
+                return defaults.parseTemplate(ctx);
+            }
+        };
+        SqlTemplate template = SqlParser.builder().templateParser(old).build().parseToMap(new StringReader(
+          "--#q\nselect 1 from t /*?x {*/where x = :x/*}*/"
+        )).get("q");
+        assertEquals("select 1 from t /*?x {*/where x = ?/*}*/", template.getQuery());
+        assertTrue(template.getSections().isEmpty());
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect * from t where id in (/*$ids type=INTEGER expand=true*/) and a = :a"
+        )).get("q");
+        assertEquals("select * from t where id in (?) and a = ?", template.getQuery());
+        assertEquals(SqlTemplate.Section.Kind.EXPAND, template.getSections().get(0).getKind());
+        int[] sizes = {0, 1, 2, 3, 5, 8};
+        String[] queries = {"?", "?", "?,?", "?,?,?,?", "?,?,?,?,?,?,?,?", "?,?,?,?,?,?,?,?"};
+        for(int i = 0; i < sizes.length; i++) {
+            SqlTemplate.Variant variant = template.getVariant(Collections.singletonMap("ids", new int[sizes[i]]));
+            assertEquals("select * from t where id in (" + queries[i] + ") and a = ?", variant.getQuery());
+            assertSame(variant, template.getVariant(sizes[i]));
+        }
+        assertSame(template.getVariant(Collections.singletonMap("ids", 42)), template.getVariant(1));
+        SqlTemplate.Variant variant = template.getVariant(Collections.singletonMap("ids", Arrays.asList(1, 2, 3)));
+        assertEquals(5, variant.getParams().size());
+        assertEquals(3, variant.getRepetition(3));
+        assertEquals("a", variant.getParams().get(4).getName());
+    }
+
+    @Test
+    public void testParamPositions() throws Exception {
+        SqlTemplate template = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#q\nselect * from t where a = :id or b = :name or c = /*$id*/ or d = :id"
+        )).get("q");
+        assertEquals(Arrays.asList("id", "name"), new ArrayList<>(template.getParamNames()));
+        assertArrayEquals(new int[]{1, 3, 4}, template.getParamPositions("id"));
+        assertArrayEquals(new int[]{2}, template.getParamPositions("name"));
+        assertArrayEquals(new int[0], template.getParamPositions("none"));
+        // returned array is a copy
+        template.getParamPositions("id")[0] = 100;
+        assertArrayEquals(new int[]{1, 3, 4}, template.getParamPositions("id"));
+        assertSame(template.paramPositions("id"), template.paramPositions("id"));
+    }
+
+    private List<ParserResult> tokenize(ParserContext ctx, String text) throws Exception {
+        List<ParserResult> list = new ArrayList<>();
+        ctx.setTokenHandler(() -> {
+            list.add(new ParserResult(!ctx.getType().isCode(), ctx.getRaw()));
+        });
+        ctx.parse(new StringReader(text));
+        return list;
+    }
+
+    private String readResource(String name) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try(Reader r = new InputStreamReader(getClass().getResourceAsStream(name), StandardCharsets.UTF_8)) {
+            char[] buf = new char[1024];
+            int read;
+            while((read = r.read(buf)) != -1) {
+                sb.append(buf, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testWithBuild() throws Exception {
         SqlParser parser = SqlParser.builder().build();
@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.StringReader;
+import java.sql.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class StatementCacheTest {
+
+    @Test
+    public void testLru() throws Exception {
+        Map<String, SqlTemplate> templates = SqlParser.getDefault().parseToMap(new StringReader(
+          "--#a\nselect cast(:x as int) + 1 from (values(0))\n" +
+          "--#b\nselect cast(:x as int) + 2 from (values(0))\n" +
+          "--#c\nselect cast(:x as int) + 3 from (values(0))\n" +
+          "--#d\nselect cast(:x as int) + 1 from (values(0)) /*?y {*/where 1 = 1/*}*/"
+        ));
+        try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:cache", "SA", "");
+            StatementCache cache = new StatementCache(connection, 2)) {
+            PreparedStatement a = cache.prepare(templates.get("a"));
+            assertSame(a, cache.prepare(templates.get("a")));
+            PreparedStatement b = cache.prepare(templates.get("b"));
+            // 'a' is used, therefore 'b' is evicted
+            assertSame(a, cache.prepare(templates.get("a")));
+            PreparedStatement c = cache.prepare(templates.get("c"));
+            assertTrue(b.isClosed());
+            assertFalse(a.isClosed());
+            assertEquals(2, cache.size());
+            assertEquals(2, cache.getHits());
+            assertEquals(3, cache.getMisses());
+            assertEquals(1, cache.getEvictions());
+
+            templates.get("a").getBindingPlan().bind(a, 5);
+            assertEquals(6, value(a));
+            templates.get("c").getBindingPlan().bind(c, 5);
+            assertEquals(8, value(c));
+
+            // variants are keyed by identity too
+            SqlTemplate d = templates.get("d");
+            PreparedStatement variant = cache.prepare(d.getVariant(1));
+            assertSame(variant, cache.prepare(d.getVariant(Collections.singletonMap("y", true))));
+            assertNotSame(variant, cache.prepare(d.getVariant(0)));
+            cache.close();
+            assertTrue(variant.isClosed());
+            assertEquals(0, cache.size());
+        }
+    }
+
+    private int value(PreparedStatement statement) throws SQLException {
+        try(ResultSet rs = statement.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}
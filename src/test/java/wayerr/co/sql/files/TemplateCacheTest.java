@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class TemplateCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("sqlfiles");
+    }
+
+    @After
+    public void after() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        Files.walk(dir).forEach(paths::add);
+        Collections.reverse(paths);
+        for(Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private void write(String name, String text) throws Exception {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Path src = dir.resolve("src");
+        Path cache = dir.resolve("out/templates.cache");
+        try(java.io.InputStream is = getClass().getResourceAsStream("./test2.sql")) {
+            Files.createDirectories(src.resolve("sub"));
+            Files.copy(is, src.resolve("sub/test2.sql"));
+        }
+        write("src/a.sql", "--#first title='First'\n--@name type=string\nselect name from t where id = :id\n--#second\nselect 2 from t /*?x {*/where x in (/*+x sep=, {*/:x/*}*/)/*}*/");
+        TemplateLoader loader = TemplateLoader.getDefault();
+        TemplateCache.compile(src, TemplateLoader.DEFAULT_GLOB, cache, loader);
+        Map<String, SqlTemplate> expected = loader.load(src);
+        assertEquals(expected, TemplateCache.load(cache));
+        assertEquals("First", TemplateCache.load(cache).get("first").getAttributes().get("title"));
+        assertEquals(2, TemplateCache.load(cache).get("second").getSections().size());
+        assertEquals(expected, TemplateCache.load(cache, src, TemplateLoader.DEFAULT_GLOB, loader));
+
+        // stale source is parsed again
+        write("src/a.sql", "--#first\nselect 1\n--#third\nselect 3");
+        Map<String, SqlTemplate> actual = TemplateCache.load(cache, src, TemplateLoader.DEFAULT_GLOB, loader);
+        assertEquals(loader.load(src), actual);
+        assertFalse(actual.containsKey("second"));
+        // cache is not changed
+        assertTrue(TemplateCache.load(cache).containsKey("second"));
+
+        // templates of deleted source do not come back, default loader is used when it is null
+        Set<String> deleted = new HashSet<>(expected.keySet());
+        deleted.removeAll(TemplateLoader.getDefault().parseFile(src.resolve("a.sql")).stream()
+          .map(SqlTemplate::getName).collect(java.util.stream.Collectors.toSet()));
+        Files.delete(src.resolve("sub/test2.sql"));
+        actual = TemplateCache.load(cache, src, TemplateLoader.DEFAULT_GLOB, null);
+        assertEquals(loader.load(src), actual);
+        assertFalse(deleted.isEmpty());
+        for(String name : deleted) {
+            assertFalse(name, actual.containsKey(name));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalid() throws Exception {
+        write("bad.cache", "--#first\nselect 1");
+        TemplateCache.load(dir.resolve("bad.cache"));
+    }
+}
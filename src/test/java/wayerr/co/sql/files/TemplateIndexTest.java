@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class TemplateIndexTest {
+
+    @Test
+    public void testIndex() throws Exception {
+        String text = readResource("./test.sql") + readResource("./test2.sql") + readResource("./example.sql");
+        Map<String, SqlTemplate> expected = SqlParser.getDefault().parseToMap(new StringReader(text));
+        TemplateIndex index = SqlParser.getDefault().index(new StringReader(text));
+        assertEquals(expected.keySet(), index.getNames());
+        for(TemplateIndex.Entry entry : index.getEntries().values()) {
+            assertFalse(entry.isResolved());
+        }
+        assertEquals(expected.get("utfSecond"), index.get("utfSecond"));
+        assertTrue(index.getEntries().get("utfSecond").isResolved());
+        assertFalse(index.getEntries().get("utfFirst").isResolved());
+        for(String name : expected.keySet()) {
+            assertEquals(expected.get(name), index.get(name));
+        }
+        assertNull(index.get("absent"));
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            sb.append("--#q").append(i).append("\nselect :p").append(i).append('\n');
+        }
+        TemplateIndex index = SqlParser.getDefault().index(new StringReader(sb.toString()));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<SqlTemplate>>> futures = new ArrayList<>();
+            for(int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    List<SqlTemplate> list = new ArrayList<>();
+                    for(int i = 0; i < 100; i++) {
+                        list.add(index.get("q" + i));
+                    }
+                    return list;
+                }));
+            }
+            List<SqlTemplate> first = futures.get(0).get();
+            for(Future<List<SqlTemplate>> future : futures) {
+                List<SqlTemplate> list = future.get();
+                for(int i = 0; i < list.size(); i++) {
+                    // template is parsed only once
+                    assertSame(first.get(i), list.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnclosedSample() throws Exception {
+        String text = "--#a\nselect /*$x {*/ 1\n--#b\nselect 2 /*}*/ 3\n--#c\nselect :c";
+        Map<String, SqlTemplate> expected = SqlParser.getDefault().parseToMap(new StringReader(text));
+        for(List<String> order : Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("b", "a", "c"),
+          Arrays.asList("c", "b", "a"))) {
+            TemplateIndex index = SqlParser.getDefault().index(new StringReader(text));
+            assertEquals(expected.keySet(), index.getNames());
+            for(String name : order) {
+                assertEquals(name, expected.get(name), index.get(name));
+            }
+            // already returned results are not changed by later lookups
+            for(String name : order) {
+                assertEquals(name, expected.get(name), index.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void testUnclosedSampleAtEnd() throws Exception {
+        String text = "--#a\nselect 1\n--#b\nselect /*$x {*/ 2";
+        Map<String, SqlTemplate> expected = SqlParser.getDefault().parseToMap(new StringReader(text));
+        for(List<String> order : Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("b", "a"))) {
+            TemplateIndex index = SqlParser.getDefault().index(new StringReader(text));
+            for(String name : order) {
+                assertEquals(name, expected.get(name), index.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void testLoader() throws Exception {
+        Path dir = Files.createTempDirectory("sqlfiles");
+        try {
+            Files.write(dir.resolve("a.sql"), "--#first\nselect 1\n--#second\nselect 2".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("b.sql"), "--#third\nselect :id".getBytes(StandardCharsets.UTF_8));
+            TemplateLoader loader = TemplateLoader.getDefault();
+            TemplateIndex index = loader.index(dir);
+            Map<String, SqlTemplate> expected = loader.load(dir);
+            assertEquals(expected.keySet(), index.getNames());
+            for(String name : expected.keySet()) {
+                assertEquals(expected.get(name), index.get(name));
+            }
+            Files.write(dir.resolve("c.sql"), "--#third\nselect 3".getBytes(StandardCharsets.UTF_8));
+            try {
+                loader.index(dir);
+                fail("Duplicate is not detected");
+            } catch(IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Duplicate template 'third'"));
+            }
+        } finally {
+            try(java.util.stream.Stream<Path> stream = Files.list(dir)) {
+                for(Path path : (Iterable<Path>)stream::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private String readResource(String name) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try(Reader r = new InputStreamReader(getClass().getResourceAsStream(name), StandardCharsets.UTF_8)) {
+            char[] buf = new char[1024];
+            int read;
+            while((read = r.read(buf)) != -1) {
+                sb.append(buf, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class TemplateLoaderTest {
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("sqlfiles");
+    }
+
+    @After
+    public void after() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        Files.walk(dir).forEach(paths::add);
+        Collections.reverse(paths);
+        for(Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private void write(String name, String text) throws Exception {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDirectory() throws Exception {
+        write("a.sql", "--#first\nselect 1\n--#second\nselect 2");
+        write("sub/b.sql", "--#third\nselect :id");
+        write("sub/c.txt", "--#fourth\nselect 4");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TemplateLoader loader = TemplateLoader.builder().executor(executor).build();
+            Map<String, SqlTemplate> map = loader.load(dir);
+            assertEquals(new HashSet<>(Arrays.asList("first", "second", "third")), map.keySet());
+            assertEquals("select ?", map.get("third").getQuery());
+            assertEquals(new HashSet<>(Arrays.asList("first", "second")), loader.load(dir, "*.sql").keySet());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        write("b.sql", "--#first\nselect 2");
+        write("a.sql", "--#first\nselect 1");
+        try {
+            TemplateLoader.getDefault().load(dir);
+            fail("Duplicate is not detected");
+        } catch(IllegalStateException e) {
+            assertEquals("Duplicate template 'first' in " + dir.resolve("a.sql") + " and " + dir.resolve("b.sql"),
+              e.getMessage());
+        }
+        write("b.sql", "--#second\nselect 2\n--#third\nselect 3\n--#second\nselect 22");
+        try {
+            TemplateLoader.getDefault().load(dir, "b.sql");
+            fail("Duplicate in same file is not detected");
+        } catch(IllegalStateException e) {
+            assertEquals("Duplicate template 'second' in " + dir.resolve("b.sql") + " at templates #1 and #3",
+              e.getMessage());
+        }
+    }
+
+    @Test
+    public void testClasspath() throws Exception {
+        Map<String, SqlTemplate> map = TemplateLoader.getDefault()
+          .loadClasspath(getClass().getClassLoader(), "wayerr/co/sql/files");
+        assertTrue(map.keySet().containsAll(Arrays.asList("FirstExample", "fisrtQuery", "utfSecond")));
+
+        Path jar = dir.resolve("templates.jar");
+        try(JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar))) {
+            // jar tools write entries for directories, it required for finding of resources
+            jos.putNextEntry(new JarEntry("sql/"));
+            jos.closeEntry();
+            putEntry(jos, "sql/a.sql", "--#first\nselect 1");
+            putEntry(jos, "sql/sub/b.sql", "--#second\nselect 2");
+            putEntry(jos, "other/c.sql", "--#third\nselect 3");
+        }
+        try(URLClassLoader cl = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+            map = TemplateLoader.getDefault().loadClasspath(cl, "sql/");
+            assertEquals(new HashSet<>(Arrays.asList("first", "second")), map.keySet());
+        }
+    }
+
+    private void putEntry(JarOutputStream jos, String name, String text) throws Exception {
+        jos.putNextEntry(new JarEntry(name));
+        OutputStream os = jos;
+        os.write(text.getBytes(StandardCharsets.UTF_8));
+        jos.closeEntry();
+    }
+
+    @Test
+    public void testCancelOnFailure() throws Exception {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new java.io.UncheckedIOException("Can not parse b.sql", new java.io.IOException("broken")));
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        try {
+            Utils.joinAll(Arrays.asList(CompletableFuture.completedFuture("a"), failed, pending));
+            fail("Error is not thrown");
+        } catch(java.io.IOException e) {
+            // location of source is kept
+            assertEquals("Can not parse b.sql", e.getMessage());
+            assertEquals("broken", e.getCause().getMessage());
+        }
+        // remaining tasks are not run
+        assertTrue(pending.isCancelled());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *    Copyright 2017 wayerr
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package wayerr.co.sql.files;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author wayerr
+ */
+public class TemplateRegistryTest {
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("sqlfiles");
+    }
+
+    @After
+    public void after() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        Files.walk(dir).forEach(paths::add);
+        Collections.reverse(paths);
+        for(Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private Path write(String name, String text) throws Exception {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        Path a = write("a.sql", "--#first\nselect 1\n--#second\nselect 2");
+        try(TemplateRegistry registry = TemplateRegistry.builder().directory(dir).build()) {
+            assertEquals("select 1", registry.get("first").getQuery());
+            Map<String, SqlTemplate> old = registry.getTemplates();
+
+            write("a.sql", "--#first\nselect 11");
+            Path b = write("b.sql", "--#third\nselect 3");
+            registry.refresh(a);
+            registry.refresh(b);
+            assertEquals("select 11", registry.get("first").getQuery());
+            assertNull(registry.get("second"));
+            assertEquals("select 3", registry.get("third").getQuery());
+            // templates of other files are not touched
+            SqlTemplate third = registry.get("third");
+            write("a.sql", "--#first\nselect 111");
+            registry.refresh(a);
+            assertEquals("select 111", registry.get("first").getQuery());
+            assertSame(third, registry.get("third"));
+            assertSame(registry.getTemplates(), registry.getTemplates());
+            // old snapshot is not changed
+            assertEquals("select 1", old.get("first").getQuery());
+
+            write("c.sql", "--#third\nselect 33");
+            try {
+                registry.refresh(dir.resolve("c.sql"));
+                fail("Duplicate is not detected");
+            } catch(IllegalStateException e) {
+                // expected
+            }
+            assertEquals("select 3", registry.get("third").getQuery());
+            Files.delete(dir.resolve("c.sql"));
+
+            write("b.sql", "--#third\nselect 3\n--#fourth\nselect 4\n--#third\nselect 33");
+            try {
+                registry.refresh(b);
+                fail("Duplicate in same file is not detected");
+            } catch(IllegalStateException e) {
+                assertEquals("Duplicate template 'third' in " + b.toAbsolutePath().normalize() + " at templates #1 and #3",
+                  e.getMessage());
+            }
+            assertSame(third, registry.get("third"));
+            assertNull(registry.get("fourth"));
+            write("b.sql", "--#third\nselect 3");
+
+            Files.delete(b);
+            registry.refresh(b);
+            assertNull(registry.get("third"));
+        }
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        write("a.sql", "--#first\nselect 1");
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        try(TemplateRegistry registry = TemplateRegistry.builder().directory(dir).errorHandler(errors::add).build()) {
+            registry.start();
+            write("sub/b.sql", "--#second\nselect 2");
+            write("a.sql", "--#first\nselect 11");
+            long deadline = System.currentTimeMillis() + 20_000;
+            while(System.currentTimeMillis() < deadline) {
+                SqlTemplate first = registry.get("first");
+                if(registry.get("second") != null && "select 11".equals(first.getQuery())) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+            assertEquals("select 11", registry.get("first").getQuery());
+            assertEquals("select 2", registry.get("second").getQuery());
+
+            // watching can be started again after close
+            registry.close();
+            registry.start();
+            write("a.sql", "--#first\nselect 111");
+            deadline = System.currentTimeMillis() + 20_000;
+            while(System.currentTimeMillis() < deadline && !"select 111".equals(registry.get("first").getQuery())) {
+                Thread.sleep(50);
+            }
+            assertEquals("select 111", registry.get("first").getQuery());
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void testMoveDirectoryOut() throws Exception {
+        write("a.sql", "--#first\nselect 1");
+        write("sub/b.sql", "--#second\nselect 2");
+        write("sub/deep/c.sql", "--#third\nselect 3");
+        Path target = Files.createTempDirectory("sqlfiles-moved");
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        try(TemplateRegistry registry = TemplateRegistry.builder().directory(dir).errorHandler(errors::add).build()) {
+            assertEquals("select 3", registry.get("third").getQuery());
+            registry.start();
+            Files.move(dir.resolve("sub"), target.resolve("sub"), StandardCopyOption.ATOMIC_MOVE);
+            long deadline = System.currentTimeMillis() + 20_000;
+            while(System.currentTimeMillis() < deadline && registry.get("second") != null) {
+                Thread.sleep(50);
+            }
+            assertNull(registry.get("second"));
+            assertNull(registry.get("third"));
+            assertEquals("select 1", registry.get("first").getQuery());
+        } finally {
+            List<Path> paths = new ArrayList<>();
+            Files.walk(target).forEach(paths::add);
+            Collections.reverse(paths);
+            for(Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+}